@@ -0,0 +1,374 @@
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AuctionEventLog
+ * - Asynchronous log stage between the network/partition threads and whoever
+ *   displays or stores the log (AuctionListeners, an optional file)
+ * - Producers fill a pre-allocated Event slot with typed fields (lot, bidder id,
+ *   amount, sequence, a copy of the raw line bytes) and return; no String is built
+ *   and no lock is taken on their side
+ * - One background thread formats the events and hands them to the sinks in
+ *   batches (the file is flushed once per batch)
+ * - Bounded: when the ring is full an event is dropped and counted instead of
+ *   stalling a network thread; the number of drops is logged once the consumer
+ *   catches up. Enqueue-to-output lag is measured per event
+ */
+public class AuctionEventLog {
+
+    // event kinds
+    static final int TEXT = 1;            // preformatted message (cold paths)
+    static final int RECEIVED = 2;        // raw line from a client
+    static final int INVALID_AMOUNT = 3;  // raw line with a bad amount
+    static final int BID_ACCEPTED = 4;
+    static final int BID_REJECTED = 5;
+
+    private static final int MAX_LINE_BYTES = 256;
+
+    /** One pre-allocated ring slot. */
+    static final class Event {
+        int kind;
+        long nanos;        // enqueue time, for lag
+        long millis;       // wall clock, for the file
+        String text;
+        Lot lot;
+        int bidder;
+        long amount;
+        long value;        // sequence for accepted bids, current high for rejected ones
+        final byte[] line = new byte[MAX_LINE_BYTES];
+        int lineLength;
+        boolean truncated;
+    }
+
+    private final Event[] ring;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(-1L);
+    private final AtomicLong consumed = new AtomicLong(-1L);
+
+    private final BidderIds bidderIds;
+    private final List<AuctionListener> listeners = new CopyOnWriteArrayList<AuctionListener>();
+    private volatile Writer file;              // optional
+    private volatile boolean enabled = false;  // any sink present
+
+    private final Thread consumer;
+    private volatile boolean running = false;
+    private volatile boolean consumerParked = false;
+
+    // statistics
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long logged = 0L;
+    private volatile long batches = 0L;
+    private volatile long lastLagNanos = 0L;
+    private volatile long maxLagNanos = 0L;
+
+    // consumer thread only
+    private final StringBuilder sb = new StringBuilder(256);
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private long reportedDrops = 0L;
+
+    /** capacity is rounded up to a power of two. */
+    public AuctionEventLog(int capacity, BidderIds bidderIds) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new Event[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Event();
+            published.set(i, -1L);
+        }
+        this.mask = size - 1;
+        this.bidderIds = bidderIds;
+        this.consumer = new Thread(new Runnable() {
+            public void run() {
+                consumeLoop();
+            }
+        }, "auction-log");
+        this.consumer.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        consumer.start();
+    }
+
+    /** Writes out what is queued, then stops the consumer and closes the file. */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(2000L);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        setFile(null);
+    }
+
+    public void addListener(AuctionListener listener) {
+        listeners.add(listener);
+        updateEnabled();
+    }
+
+    public void removeListener(AuctionListener listener) {
+        listeners.remove(listener);
+        updateEnabled();
+    }
+
+    /** Also writes every line, timestamped, to the given file (appending); null stops it. */
+    public void setFile(Writer writer) {
+        Writer old = file;
+        file = writer;
+        updateEnabled();
+        if (old != null) {
+            try {
+                old.close();
+            } catch (IOException ex) {
+                // nothing sensible to do with a log we are abandoning
+            }
+        }
+    }
+
+    /** False when nobody would see an event; callers may then skip logging entirely. */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getLoggedEvents() {
+        return logged;
+    }
+
+    public long getDroppedEvents() {
+        return dropped.get();
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    /** Events accepted but not yet written out. */
+    public long getBacklog() {
+        return claimed.get() - consumed.get();
+    }
+
+    /** Enqueue-to-output lag of the most recent event, in microseconds. */
+    public long getLastLagMicros() {
+        return lastLagNanos / 1000L;
+    }
+
+    public long getMaxLagMicros() {
+        return maxLagNanos / 1000L;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    private void updateEnabled() {
+        enabled = !listeners.isEmpty() || file != null;
+    }
+
+    // --- producers (any thread) ---
+
+    public void text(String message) {
+        long seq = claim();
+        if (seq < 0) return;
+        Event e = ring[(int) (seq & mask)];
+        e.kind = TEXT;
+        e.text = message;
+        publish(e, seq);
+    }
+
+    /** A line received from a client; the bytes are copied (up to 256). */
+    public void received(byte[] b, int off, int len) {
+        line(RECEIVED, b, off, len);
+    }
+
+    public void invalidAmount(byte[] b, int off, int len) {
+        line(INVALID_AMOUNT, b, off, len);
+    }
+
+    private void line(int kind, byte[] b, int off, int len) {
+        long seq = claim();
+        if (seq < 0) return;
+        Event e = ring[(int) (seq & mask)];
+        e.kind = kind;
+        int n = Math.min(len, MAX_LINE_BYTES);
+        System.arraycopy(b, off, e.line, 0, n);
+        e.lineLength = n;
+        e.truncated = n < len;
+        publish(e, seq);
+    }
+
+    public void bidAccepted(Lot lot, int bidder, long amount, long sequence) {
+        bid(BID_ACCEPTED, lot, bidder, amount, sequence);
+    }
+
+    public void bidRejected(Lot lot, int bidder, long amount, long currentHigh) {
+        bid(BID_REJECTED, lot, bidder, amount, currentHigh);
+    }
+
+    private void bid(int kind, Lot lot, int bidder, long amount, long value) {
+        long seq = claim();
+        if (seq < 0) return;
+        Event e = ring[(int) (seq & mask)];
+        e.kind = kind;
+        e.lot = lot;
+        e.bidder = bidder;
+        e.amount = amount;
+        e.value = value;
+        publish(e, seq);
+    }
+
+    // claims a slot without ever waiting; -1 (and a counted drop) when full
+    private long claim() {
+        if (!enabled) return -1L;
+        while (true) {
+            long cur = claimed.get();
+            long seq = cur + 1;
+            if (seq - ring.length > consumed.get()) {
+                dropped.incrementAndGet();
+                return -1L;
+            }
+            if (claimed.compareAndSet(cur, seq)) return seq;
+        }
+    }
+
+    private void publish(Event e, long seq) {
+        e.nanos = System.nanoTime();
+        e.millis = System.currentTimeMillis();
+        published.set((int) (seq & mask), seq);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    // --- consumer ---
+
+    private void consumeLoop() {
+        long next = consumed.get() + 1;
+        int idle = 0;
+        while (true) {
+            long available = next;
+            while (published.get((int) (available & mask)) == available) {
+                available++;
+            }
+            if (available > next) {
+                Writer out = file;
+                for (long seq = next; seq < available; seq++) {
+                    Event e = ring[(int) (seq & mask)];
+                    deliver(format(e), e.millis, out);
+                    long lag = System.nanoTime() - e.nanos;
+                    lastLagNanos = lag;
+                    if (lag > maxLagNanos) maxLagNanos = lag;
+                    e.text = null;
+                    e.lot = null;
+                    consumed.lazySet(seq);
+                }
+                logged += available - next;
+                batches++;
+                next = available;
+                reportDrops(out);
+                if (out != null) {
+                    try {
+                        out.flush();
+                    } catch (IOException ex) {
+                        dropFile(out);
+                    }
+                }
+                idle = 0;
+                continue;
+            }
+            if (!running) {
+                return;
+            }
+            idle++;
+            if (idle < 50) {
+                Thread.yield();
+            } else {
+                consumerParked = true;
+                if (published.get((int) (next & mask)) != next && running) {
+                    LockSupport.parkNanos(1000000L);
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    private void reportDrops(Writer out) {
+        long d = dropped.get();
+        if (d != reportedDrops) {
+            deliver("Log overloaded: " + (d - reportedDrops) + " event(s) dropped", System.currentTimeMillis(), out);
+            reportedDrops = d;
+        }
+    }
+
+    private void deliver(String message, long millis, Writer out) {
+        for (AuctionListener l : listeners) {
+            try {
+                l.onLog(message);
+            } catch (RuntimeException ex) {
+                // a broken listener must not stop the log for the others
+            }
+        }
+        if (out != null) {
+            try {
+                out.write(timeFormat.format(new Date(millis)));
+                out.write(' ');
+                out.write(message);
+                out.write('\n');
+            } catch (IOException ex) {
+                dropFile(out);
+            }
+        }
+    }
+
+    // a failing file is given up rather than retried on every line
+    private void dropFile(Writer out) {
+        if (file == out) {
+            file = null;
+            updateEnabled();
+        }
+    }
+
+    private String format(Event e) {
+        switch (e.kind) {
+            case TEXT:
+                return e.text;
+            case RECEIVED:
+                return lineMessage("Received from client: ", e);
+            case INVALID_AMOUNT:
+                return lineMessage("Invalid bid amount: ", e);
+            case BID_ACCEPTED:
+                sb.setLength(0);
+                sb.append("Bid #").append(e.value).append(" received: ").append(bidderIds.name(e.bidder))
+                        .append(" -> $").append(Money.format(e.amount));
+                return label(e.lot);
+            case BID_REJECTED:
+                sb.setLength(0);
+                sb.append("Bid rejected: ").append(bidderIds.name(e.bidder))
+                        .append(" -> $").append(Money.format(e.amount))
+                        .append(" (current high $").append(Money.format(e.value)).append(')');
+                return label(e.lot);
+            default:
+                return "Unknown log event " + e.kind;
+        }
+    }
+
+    private String lineMessage(String prefix, Event e) {
+        sb.setLength(0);
+        sb.append(prefix).append(new String(e.line, 0, e.lineLength, NioAuctionServer.UTF8));
+        if (e.truncated) sb.append("...");
+        return sb.toString();
+    }
+
+    // appends " [lot x]" for non-default lots and returns the message
+    private String label(Lot lot) {
+        if (!lot.isDefault()) sb.append(" [lot ").append(lot.id).append(']');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * AuctionListener
+ * - Observer of an AuctionServer (the Swing BidMasterWindow, the console of the
+ *   headless main, ...)
+ * - Called on the AuctionEventLog consumer thread, one line at a time; a slow
+ *   listener delays the log (and every other listener), not the auction, so
+ *   hand UI work off instead (e.g. SwingUtilities.invokeLater)
+ */
+public interface AuctionListener {
+
+    void onLog(String line);
+}
@@ -0,0 +1,244 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * AuctionMetrics
+ * - Hot-path counters of one AuctionServer: bids received/accepted/rejected,
+ *   connected clients, outbound queue depths
+ * - Two LatencyHistograms: fan-out (time to hand one accepted bid to every
+ *   subscriber's queue) and bid-to-last-write (from the BID coming off the
+ *   socket to the last subscriber's write of the resulting broadcast completing)
+ * - Recording is a handful of atomic increments, no allocation and no lock;
+ *   anything derived (rates, percentiles, queue scans) is computed when read
+ * - Readable through JMX (AuctionMetricsMBean) and as a plain-text snapshot()
+ */
+public class AuctionMetrics implements AuctionMetricsMBean {
+
+    private static final int DEEPEST_SHOWN = 10;
+
+    private final AtomicLong bidsReceived = new AtomicLong();
+    private final AtomicLong bidsAccepted = new AtomicLong();
+    private final AtomicLong bidsRejected = new AtomicLong();
+    private final AtomicLong commandErrors = new AtomicLong();
+    private final Set<NioAuctionServer.Connection> clients =
+            Collections.newSetFromMap(new ConcurrentHashMap<NioAuctionServer.Connection, Boolean>());
+
+    final LatencyHistogram fanOut = new LatencyHistogram();
+    final LatencyHistogram bidToLastWrite = new LatencyHistogram();
+
+    private final AuctionEventLog eventLog;   // reported alongside, may be null
+    private volatile NioAuctionServer server;  // the last one started, for its idle evictions
+
+    // bids/sec over the last sampling window; guarded by this
+    private long rateSampleNanos = System.nanoTime();
+    private long rateSampleCount = 0L;
+    private double bidsPerSecond = 0.0;
+
+    private ObjectName registeredAs;
+
+    public AuctionMetrics(AuctionEventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    // --- recording (any thread) ---
+
+    void clientConnected(NioAuctionServer.Connection c) {
+        clients.add(c);
+    }
+
+    void clientDisconnected(NioAuctionServer.Connection c) {
+        clients.remove(c);
+    }
+
+    void serverStarted(NioAuctionServer s) {
+        server = s;
+    }
+
+    void bidReceived() {
+        bidsReceived.incrementAndGet();
+    }
+
+    void bidAccepted() {
+        bidsAccepted.incrementAndGet();
+    }
+
+    void bidRejected() {
+        bidsRejected.incrementAndGet();
+    }
+
+    void commandFailed() {
+        commandErrors.incrementAndGet();
+    }
+
+    void fanOut(long nanos) {
+        fanOut.record(nanos);
+    }
+
+    /** Follows one broadcast until its last write; see Delivery. */
+    Delivery newDelivery(long readNanos) {
+        return new Delivery(readNanos, bidToLastWrite);
+    }
+
+    // --- JMX ---
+
+    /** Registers with the platform MBean server; failures only cost the JMX view. */
+    public synchronized void register(int port) {
+        if (registeredAs != null) return;
+        try {
+            ObjectName name = new ObjectName("auction:type=AuctionServer,port=" + port);
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            if (mbs.isRegistered(name)) mbs.unregisterMBean(name);
+            mbs.registerMBean(this, name);
+            registeredAs = name;
+        } catch (Exception ex) {
+            // JMX disabled or restricted; counters still work
+        }
+    }
+
+    public synchronized void unregister() {
+        if (registeredAs == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+        } catch (Exception ex) {
+            // already gone
+        }
+        registeredAs = null;
+    }
+
+    public long getBidsReceived() {
+        return bidsReceived.get();
+    }
+
+    public long getBidsAccepted() {
+        return bidsAccepted.get();
+    }
+
+    public long getBidsRejected() {
+        return bidsRejected.get();
+    }
+
+    /** Received bids per second, averaged since the previous read (at least one second). */
+    public synchronized double getBidsPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - rateSampleNanos;
+        if (elapsed >= 1000000000L) {
+            long count = bidsReceived.get();
+            bidsPerSecond = (count - rateSampleCount) * 1e9 / elapsed;
+            rateSampleCount = count;
+            rateSampleNanos = now;
+        }
+        return bidsPerSecond;
+    }
+
+    public int getConnectedClients() {
+        return clients.size();
+    }
+
+    public long getIdleEvictions() {
+        NioAuctionServer s = server;
+        return s != null ? s.getIdleEvictions() : 0L;
+    }
+
+    public long getCommandErrors() {
+        return commandErrors.get();
+    }
+
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (NioAuctionServer.Connection c : clients) {
+            max = Math.max(max, c.getQueuedFrames());
+        }
+        return max;
+    }
+
+    public long getTotalQueuedFrames() {
+        long total = 0;
+        for (NioAuctionServer.Connection c : clients) {
+            total += c.getQueuedFrames();
+        }
+        return total;
+    }
+
+    public String[] getDeepestQueues() {
+        List<NioAuctionServer.Connection> sorted = new ArrayList<NioAuctionServer.Connection>(clients);
+        final Map<NioAuctionServer.Connection, Integer> depth = new HashMap<NioAuctionServer.Connection, Integer>();
+        for (NioAuctionServer.Connection c : sorted) {
+            depth.put(c, c.getQueuedFrames());
+        }
+        Collections.sort(sorted, new Comparator<NioAuctionServer.Connection>() {
+            public int compare(NioAuctionServer.Connection a, NioAuctionServer.Connection b) {
+                return depth.get(b).compareTo(depth.get(a));
+            }
+        });
+        int n = Math.min(DEEPEST_SHOWN, sorted.size());
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) {
+            NioAuctionServer.Connection c = sorted.get(i);
+            out[i] = c.getRemoteAddress() + "=" + depth.get(c);
+        }
+        return out;
+    }
+
+    public long getFanOutP50Micros() {
+        return fanOut.getPercentileNanos(50.0) / 1000L;
+    }
+
+    public long getFanOutP99Micros() {
+        return fanOut.getPercentileNanos(99.0) / 1000L;
+    }
+
+    public long getFanOutMaxMicros() {
+        return fanOut.getMaxNanos() / 1000L;
+    }
+
+    public long getBidToLastWriteP50Micros() {
+        return bidToLastWrite.getPercentileNanos(50.0) / 1000L;
+    }
+
+    public long getBidToLastWriteP99Micros() {
+        return bidToLastWrite.getPercentileNanos(99.0) / 1000L;
+    }
+
+    public long getBidToLastWriteP999Micros() {
+        return bidToLastWrite.getPercentileNanos(99.9) / 1000L;
+    }
+
+    public long getBidToLastWriteMaxMicros() {
+        return bidToLastWrite.getMaxNanos() / 1000L;
+    }
+
+    public void resetLatencies() {
+        fanOut.reset();
+        bidToLastWrite.reset();
+    }
+
+    public String snapshot() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("bids received=").append(getBidsReceived())
+                .append(" accepted=").append(getBidsAccepted())
+                .append(" rejected=").append(getBidsRejected())
+                .append(String.format(" rate=%.1f/s", getBidsPerSecond())).append('\n');
+        sb.append("clients connected=").append(getConnectedClients())
+                .append(" queued frames=").append(getTotalQueuedFrames())
+                .append(" max queue=").append(getMaxQueueDepth())
+                .append(" idle evictions=").append(getIdleEvictions())
+                .append(" command errors=").append(getCommandErrors()).append('\n');
+        String[] deepest = getDeepestQueues();
+        if (deepest.length > 0) {
+            sb.append("deepest queues: ").append(Arrays.toString(deepest)).append('\n');
+        }
+        sb.append("fan-out:           ").append(fanOut.summary()).append('\n');
+        sb.append("bid to last write: ").append(bidToLastWrite.summary());
+        if (eventLog != null) {
+            sb.append('\n').append("log backlog=").append(eventLog.getBacklog())
+                    .append(" dropped=").append(eventLog.getDroppedEvents())
+                    .append(" lag=").append(eventLog.getLastLagMicros()).append("us")
+                    .append(" max lag=").append(eventLog.getMaxLagMicros()).append("us");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * AuctionMetricsMBean
+ * - JMX view of AuctionMetrics (registered as auction:type=AuctionServer,port=<port>)
+ * - Latencies are in microseconds
+ */
+public interface AuctionMetricsMBean {
+
+    long getBidsReceived();
+
+    long getBidsAccepted();
+
+    long getBidsRejected();
+
+    double getBidsPerSecond();
+
+    int getConnectedClients();
+
+    /** Clients closed by the heartbeat because they stayed silent too long. */
+    long getIdleEvictions();
+
+    /** Sequencer commands whose handler threw; each is logged and skipped. */
+    long getCommandErrors();
+
+    int getMaxQueueDepth();
+
+    long getTotalQueuedFrames();
+
+    /** "address=depth" for the clients with the deepest outbound queues. */
+    String[] getDeepestQueues();
+
+    long getFanOutP50Micros();
+
+    long getFanOutP99Micros();
+
+    long getFanOutMaxMicros();
+
+    long getBidToLastWriteP50Micros();
+
+    long getBidToLastWriteP99Micros();
+
+    long getBidToLastWriteP999Micros();
+
+    long getBidToLastWriteMaxMicros();
+
+    /** The same report as the "stats" console command. */
+    String snapshot();
+
+    void resetLatencies();
+}
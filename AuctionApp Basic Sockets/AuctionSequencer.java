@@ -0,0 +1,192 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AuctionSequencer
+ * - Disruptor-style ring buffer of pre-allocated Command slots
+ * - Any number of producers (reactor threads, the EDT) claim a slot with one
+ *   atomic increment, fill it in place and publish it
+ * - Exactly one consumer thread takes the commands in claim order and hands them
+ *   to the Handler; that thread is the only one touching auction state, so the
+ *   state needs no locks and every command sees a deterministic order
+ * - When the ring is full producers spin/yield until the consumer frees a slot
+ *   (back-pressure instead of unbounded memory)
+ */
+public class AuctionSequencer {
+
+    /** One slot of the ring. Fields are only valid during Handler.onCommand. */
+    public static final class Command {
+        public static final int JOIN = 1;
+        public static final int BID = 2;
+        public static final int FINAL_CONFIRM = 3;
+        public static final int START = 4;
+        public static final int END = 5;
+        public static final int FINAL_REQUEST = 6;
+        public static final int FLUSH_BIDS = 8;
+        public static final int RESUME = 9;
+        public static final int CLOSE_DUE = 10;
+        public static final int FINAL_TIMEOUT = 11;
+        public static final int HISTORY_LAST = 12;
+        public static final int HISTORY_SINCE = 13;
+        public static final int BIDDER_HISTORY = 14;
+        public static final int TOP = 15;
+
+        private static final String[] NAMES = {
+                null, "JOIN", "BID", "FINAL_CONFIRM", "START", "END", "FINAL_REQUEST", null,
+                "FLUSH_BIDS", "RESUME", "CLOSE_DUE", "FINAL_TIMEOUT", "HISTORY_LAST",
+                "HISTORY_SINCE", "BIDDER_HISTORY", "TOP"
+        };
+
+        public int type;
+        public Lot lot;
+        public NioAuctionServer.Connection conn;
+        public String text;      // name or item
+        public int bidder;       // interned bidder id for BID
+        public long amount;      // cents for BID
+        public long readNanos;   // System.nanoTime() when the BID was read, for latency metrics
+
+        void clear() {
+            lot = null;
+            conn = null;
+            text = null;
+            bidder = 0;
+            amount = 0L;
+            readNanos = 0L;
+        }
+
+        /** The command type's name for logs, e.g. "BID". */
+        public static String typeName(int type) {
+            String name = type >= 0 && type < NAMES.length ? NAMES[type] : null;
+            return name != null ? name : "type " + type;
+        }
+    }
+
+    public interface Handler {
+        void onCommand(Command cmd);
+
+        /** onCommand threw; cmd is still filled in. The consumer carries on with the next command. */
+        void onError(Command cmd, RuntimeException ex);
+    }
+
+    private final Command[] ring;
+    private final AtomicLongArray published;   // sequence last published into each slot
+    private final int mask;
+    private final Handler handler;
+
+    private final AtomicLong claimed = new AtomicLong(-1L);
+    private final AtomicLong consumed = new AtomicLong(-1L);
+
+    private final Thread consumer;
+    private volatile boolean running = false;
+    private volatile boolean consumerParked = false;
+
+    /** capacity is rounded up to a power of two. */
+    public AuctionSequencer(int capacity, Handler handler, String threadName) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new Command[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Command();
+            published.set(i, -1L);
+        }
+        this.mask = size - 1;
+        this.handler = handler;
+        this.consumer = new Thread(new Runnable() {
+            public void run() {
+                consumeLoop();
+            }
+        }, threadName);
+        this.consumer.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        consumer.start();
+    }
+
+    /** Stops after the commands already published have been handled. */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(consumer);
+    }
+
+    /** Waits up to millis for the consumer to finish after stop(). Returns true once it has. */
+    public boolean awaitStop(long millis) throws InterruptedException {
+        if (Thread.currentThread() == consumer) return false;
+        consumer.join(millis);
+        return !consumer.isAlive();
+    }
+
+    public void publish(int type, Lot lot, NioAuctionServer.Connection conn, String text, long amount, int bidder, long readNanos) {
+        long seq = claimed.incrementAndGet();
+        // wait for the consumer to free the slot one lap behind us
+        long wrapPoint = seq - ring.length;
+        int spins = 0;
+        while (wrapPoint > consumed.get()) {
+            if (++spins < 100) continue;
+            if (spins < 200) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(1000L);
+            }
+        }
+        int idx = (int) (seq & mask);
+        Command cmd = ring[idx];
+        cmd.type = type;
+        cmd.lot = lot;
+        cmd.conn = conn;
+        cmd.text = text;
+        cmd.amount = amount;
+        cmd.bidder = bidder;
+        cmd.readNanos = readNanos;
+        published.set(idx, seq); // volatile store publishes the slot contents
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+
+    private void consumeLoop() {
+        long next = consumed.get() + 1;
+        int idle = 0;
+        while (true) {
+            int idx = (int) (next & mask);
+            if (published.get(idx) == next) {
+                Command cmd = ring[idx];
+                try {
+                    handler.onCommand(cmd);
+                } catch (RuntimeException ex) {
+                    // a bad command must not kill the only thread that owns the state
+                    try {
+                        handler.onError(cmd, ex);
+                    } catch (RuntimeException ignored) {
+                        // nothing left to report it to
+                    }
+                } finally {
+                    cmd.clear();
+                }
+                consumed.lazySet(next);
+                next++;
+                idle = 0;
+                continue;
+            }
+            if (!running) {
+                return;
+            }
+            // idle strategy: spin briefly for low latency under load, then back off
+            idle++;
+            if (idle < 100) {
+                continue;
+            } else if (idle < 200) {
+                Thread.yield();
+            } else {
+                consumerParked = true;
+                if (published.get(idx) != next && running) {
+                    LockSupport.parkNanos(100000L);
+                }
+                consumerParked = false;
+            }
+        }
+    }
+}
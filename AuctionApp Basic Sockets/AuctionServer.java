@@ -0,0 +1,1342 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AuctionServer
+ * - Headless, embeddable auction server: NioAuctionServer for the sockets, a
+ *   LotRegistry of lots (one AuctionSequencer per partition) for the state
+ * - Programmatic API: start/stop, startAuction/endAuction/requestFinal per lot
+ * - Everything worth showing goes through an AuctionEventLog to AuctionListener
+ *   observers and an optional log file; network and partition threads only fill
+ *   a pre-allocated event, and with no sink nothing is recorded at all
+ * - Optional BidJournal: every state change (START, END, JOIN, accepted BID,
+ *   confirmed final) is appended by the partition thread and group-committed;
+ *   on construction the journal is replayed so lots, items and high bids survive
+ *   a crash or restart. It is write-behind: a bid is acknowledged and broadcast
+ *   once appended, so a crash can lose the last few milliseconds of accepted
+ *   bids (see BidJournal); a normal stop loses none
+ * - AuctionMetrics counts bids, clients and queue depths and times fan-out and
+ *   bid-to-last-write latency; exposed over JMX and as a text snapshot ("stats")
+ * - Slow clients: each has a bounded send queue (-Dauction.queueCapacity,
+ *   default 1024 frames); -Dauction.slowConsumer=conflate (default) lets a
+ *   lagging client skip superseded prices, =disconnect keeps every frame and
+ *   drops the client instead; either way a client whose oldest unsent frame
+ *   is older than -Dauction.maxLagMillis (default 10000) is disconnected
+ * - Heartbeats: a client silent for -Dauction.heartbeatMillis (default 5000)
+ *   gets PING and must answer PONG (or send anything else); one silent for
+ *   -Dauction.idleTimeoutMillis (default 15000) is disconnected; 0 turns it off
+ * - Every accepted bid is kept per lot (BidHistory): TOP|<n> shows clients
+ *   the highest bids, the console prints a lot's history or one bidder's
+ *   bids, and when a timed lot's winner lets the final request time out the
+ *   next highest other bidder is asked instead
+ * - Sessions: JOIN (or RESUME) binds the name to the connection in a
+ *   SessionRegistry; a name held by another live connection is refused, and
+ *   BID/FINAL_CONFIRM must carry the connection's own name, so bids are
+ *   attributed by connection and cannot be sent on someone else's behalf;
+ *   a holder silent for two heartbeat intervals is presumed dead (half-open
+ *   after a network drop) and a new JOIN or RESUME takes the name over;
+ *   a name that never bid is forgotten when its session ends, and at most
+ *   -Dauction.maxBidders (default 1048576) names are known at once
+ * - Amounts are cents (Money) from the moment they are read; a bid must beat
+ *   the high bid by -Dauction.minIncrement (default 0.01)
+ * - Timed lots (startAuction with a duration, console "timed"): bidding
+ *   closes by itself at the end time, which a bid in the last
+ *   -Dauction.softCloseMillis (default 30000) pushes back to that much from
+ *   now (anti-sniping); then the final bid is requested, and the lot ends
+ *   once it is confirmed or -Dauction.finalTimeoutMillis (default 60000)
+ *   passes. The final timeout applies to operator requests too. All timers
+ *   run on one shared scheduler thread and only publish a command to the
+ *   lot's partition, where the actual decision is made
+ * - Optional coalescing window (-Dauction.coalesceMillis, e.g. 5-20): accepted
+ *   bids are held for the window and only the winner is broadcast, optionally
+ *   preceded by a BIDMASTER|OUTBID digest in the same frame; the journal and
+ *   the bid book still see every bid
+ * - main() runs it without a display and takes operator commands from stdin;
+ *   when stdin ends (nohup, systemd, docker without a TTY) it keeps serving
+ *   until "quit" or a shutdown signal, which stops it cleanly
+ *
+ * Protocol (plain text lines). [|<lot>] is omitted for the default lot "main", so the
+ * original single-auction protocol is unchanged:
+ * JOIN|<name>[|<lot>]             (one name per connection; BIDMASTER|REJECTED|<name>|<reason> when
+ *                                 the name is in use or the connection already joined under another)
+ * JOIN_BINARY|<name>[|<lot>]      (as JOIN, then the connection switches to BinaryCodec frames)
+ * SNAPSHOT|<seq>|<OPEN|FINAL|CLOSED>|<item>|<high bidder>|<amount>[|<lot>]  (server -> joiner;
+ *                                 <seq> is the sequence number of the high bid; bidder and amount
+ *                                 are empty when there is none)
+ * RESUME|<name>|<seq>[|<lot>]     (client -> server, instead of JOIN after a reconnect; answered with the
+ *                                 BIDs after <seq> and BIDMASTER|RESUMED|<seq>, or with a SNAPSHOT)
+ * SUBSCRIBE|<lot>, UNSUBSCRIBE|<lot>     (client -> server; every client starts on "main")
+ *                                 Only the operator creates lots: JOIN, RESUME or SUBSCRIBE naming an
+ *                                 unknown lot gets BIDMASTER|REJECTED|<name or lot>|no such lot
+ * START|<item>[|<lot>]            (server -> subscribers)
+ * BID|<name>|<amount>[|<lot>]     (client -> server, server -> subscribers; must beat the current high bid)
+ * BIDMASTER|REJECTED|<amount>|<reason>[|<lot>]  (server -> bidder)
+ * BIDMASTER|OUTBID|<count>|<name>:<amount>,...[|<lot>]  (server -> subscribers, before a coalesced BID)
+ * FINAL_REQUEST|<name>|<amount>[|<lot>]         (server -> subscribers)
+ * FINAL_CONFIRM|<name>[|<lot>]    (client -> server)
+ * BIDMASTER|CLOSES_IN|<millis>[|<lot>]          (server -> subscribers; timed lots, at start and on extension)
+ * BIDMASTER|FINAL_TIMEOUT|<name>|<amount>[|<lot>]  (server -> subscribers; the final bid was not confirmed in time)
+ * TOP|<n>[|<lot>]                 (client -> server) answered with
+ * BIDMASTER|TOP|<count>|<name>:<amount>,...[|<lot>]  highest first
+ * END[|<lot>]                     (server -> subscribers)
+ * PING (server -> client), PONG (client -> server)   heartbeat
+ */
+public class AuctionServer {
+
+    public static final int DEFAULT_PORT = 5000;
+    public static final String DEFAULT_JOURNAL = "auction.journal";
+    private static final long JOURNAL_SYNC_MILLIS = 5L;
+    private static final byte[] NO_TEXT = new byte[0];
+    private static final int TOP_MAX = 50;
+    // how long stop() waits for the partitions to drain their rings
+    private static final long STOP_WAIT_MILLIS = 5000L;
+
+    private final int port;
+
+    // Networking; start/stop can come from any partition thread
+    private final Object serverLock = new Object();
+    private volatile NioAuctionServer server;
+    private volatile boolean serverRunning = false;
+    private volatile boolean stopWhenIdle = false;
+
+    // Lots, each owned by the sequencer thread of its partition
+    private final LotRegistry lots;
+    private final AtomicInteger openLots = new AtomicInteger();
+    // a session that only joins gives its id back; this bounds the ones alive at once
+    private final BidderIds bidderIds = new BidderIds(Integer.getInteger("auction.maxBidders", 1 << 20));
+    private final SessionRegistry sessions = new SessionRegistry(bidderIds);
+    private final AuctionEventLog eventLog = new AuctionEventLog(8192, bidderIds);
+    private final AuctionMetrics metrics = new AuctionMetrics(eventLog);
+    private final Lot defaultLot;
+
+    // Heartbeats, applied when the network starts
+    private volatile long heartbeatMillis = Long.getLong("auction.heartbeatMillis", 5000L);
+    private volatile long idleTimeoutMillis = Long.getLong("auction.idleTimeoutMillis", 15000L);
+
+    // Per-client send queue and slow-consumer policy, applied when the network starts
+    private volatile OutboundQueue.Config outboundConfig = OutboundQueue.Config.fromSystemProperties();
+
+    // Smallest step over the current high bid, in cents
+    private volatile long minIncrementCents = Math.max(1L, Money.parse(System.getProperty("auction.minIncrement", "0.01")));
+
+    // Timed close
+    private volatile long softCloseMillis = Long.getLong("auction.softCloseMillis", 30000L);
+    private volatile long finalTimeoutMillis = Long.getLong("auction.finalTimeoutMillis", 60000L);
+
+    // Broadcast coalescing; 0 = every accepted bid is broadcast at once
+    private volatile int coalesceMillis = Integer.getInteger("auction.coalesceMillis", 0);
+    private volatile boolean coalesceDigest = Boolean.getBoolean("auction.coalesceDigest");
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "auction-timer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // Durability; null when running without a journal
+    private final BidJournal journal;
+    private volatile boolean journalFailureLogged = false;
+    private long recoveredRecords = 0L;
+    private long recoveryMillis = 0L;
+
+    public AuctionServer(int port) {
+        this.port = port;
+        this.journal = null;
+        eventLog.start();
+        lots = newLotRegistry();
+        defaultLot = lots.getOrCreate(Lot.DEFAULT_ID);
+        lots.start();
+    }
+
+    /**
+     * Server whose state is journaled to journalFile. Whatever the file already
+     * holds is replayed first, before any partition thread runs.
+     */
+    public AuctionServer(int port, File journalFile) throws IOException {
+        this.port = port;
+        eventLog.start();
+        lots = newLotRegistry();
+        defaultLot = lots.getOrCreate(Lot.DEFAULT_ID);
+        journal = new BidJournal(journalFile, JOURNAL_SYNC_MILLIS);
+        long begin = System.nanoTime();
+        try {
+            recoveredRecords = journal.replay(new BidJournal.Visitor() {
+                public void onRecord(byte type, long time, long sequence, long amount, String lot, String text) {
+                    recover(type, time, sequence, amount, lot, text);
+                }
+            });
+        } catch (IOException ex) {
+            journal.close();
+            eventLog.stop();
+            throw ex;
+        }
+        recoveryMillis = (System.nanoTime() - begin) / 1000000L;
+        journal.start();
+        lots.start();
+        // timed lots carry on; one whose end passed while we were down closes now
+        for (Lot lot : lots.all()) {
+            if (lot.open && lot.endsAt > 0) {
+                scheduleTimer(lot, AuctionSequencer.Command.CLOSE_DUE, lot.timerGeneration, lot.endsAt - System.currentTimeMillis());
+            }
+        }
+    }
+
+    private LotRegistry newLotRegistry() {
+        return new LotRegistry(LotRegistry.defaultPartitions(), 4096, new AuctionSequencer.Handler() {
+            public void onCommand(AuctionSequencer.Command cmd) {
+                dispatch(cmd);
+            }
+
+            public void onError(AuctionSequencer.Command cmd, RuntimeException ex) {
+                metrics.commandFailed();
+                log("Error handling " + AuctionSequencer.Command.typeName(cmd.type)
+                        + (cmd.lot != null ? " for lot " + cmd.lot.id : "") + ", skipped: " + ex);
+            }
+        });
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isRunning() {
+        return serverRunning;
+    }
+
+    /** Listeners are called on the log thread, one line at a time, in order. */
+    public void addListener(AuctionListener listener) {
+        eventLog.addListener(listener);
+    }
+
+    public void removeListener(AuctionListener listener) {
+        eventLog.removeListener(listener);
+    }
+
+    /** Also appends every log line, timestamped, to file; null stops writing it. */
+    public void setLogFile(File file) throws IOException {
+        eventLog.setFile(file == null ? null
+                : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), NioAuctionServer.UTF8), 1 << 16));
+    }
+
+    public AuctionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** The asynchronous log stage, for its lag/drop counters. */
+    public AuctionEventLog getEventLog() {
+        return eventLog;
+    }
+
+    /**
+     * When set, the server closes its socket and all clients as soon as no lot is
+     * open any more (the original single-auction "End Auction" behaviour).
+     */
+    public void setStopWhenIdle(boolean stopWhenIdle) {
+        this.stopWhenIdle = stopWhenIdle;
+    }
+
+    /**
+     * Pings a client after intervalMillis without a message from it and drops it
+     * after timeoutMillis (0 turns heartbeats off). Applies from the next start().
+     */
+    public void setHeartbeat(long intervalMillis, long timeoutMillis) {
+        this.heartbeatMillis = intervalMillis;
+        this.idleTimeoutMillis = timeoutMillis;
+    }
+
+    /** Queue size, slow-consumer policy and maximum lag of every client. Applies from the next start(). */
+    public void setOutboundConfig(OutboundQueue.Config config) {
+        if (config == null) throw new IllegalArgumentException("config");
+        this.outboundConfig = config;
+    }
+
+    /** Smallest amount, in cents, by which a bid must beat the current high bid. */
+    public void setMinIncrement(long cents) {
+        if (!Money.isValid(cents)) throw new IllegalArgumentException("invalid increment: " + cents);
+        this.minIncrementCents = cents;
+    }
+
+    /** A bid this close to a timed lot's end moves the end to this far from the bid (0 = no extension). */
+    public void setSoftCloseMillis(long millis) {
+        this.softCloseMillis = Math.max(0L, millis);
+    }
+
+    /** How long a FINAL_REQUEST waits for its FINAL_CONFIRM (0 = forever). */
+    public void setFinalTimeoutMillis(long millis) {
+        this.finalTimeoutMillis = Math.max(0L, millis);
+    }
+
+    /**
+     * Coalescing window for BID broadcasts in milliseconds (0 turns it off).
+     * Within a window only the highest bid is sent; FINAL_REQUEST, END and
+     * START flush a pending winner first so clients always see the final price.
+     */
+    public void setCoalesceMillis(int millis) {
+        this.coalesceMillis = Math.max(0, millis);
+    }
+
+    /** Whether a coalesced broadcast is preceded by a BIDMASTER|OUTBID digest of the bids it replaced. */
+    public void setCoalesceDigest(boolean digest) {
+        this.coalesceDigest = digest;
+    }
+
+    public Lot getLot(String id) {
+        return lots.get(id);
+    }
+
+    /** Number of journal records replayed at construction (0 without a journal). */
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    /** One line describing what was recovered from the journal, or null without one. */
+    public String getRecoveryReport() {
+        if (journal == null) return null;
+        String truncated = journal.getTruncationReport();
+        return "Recovered " + recoveredRecords + " journal records from " + journal.getFile()
+                + " in " + recoveryMillis + " ms; " + openLots.get() + " lot(s) open"
+                + (truncated != null ? "; " + truncated : "");
+    }
+
+    /** Opens the listening socket. Throws if the port cannot be bound. */
+    public void start() throws IOException {
+        synchronized (serverLock) {
+            if (serverRunning) return;
+            NioAuctionServer s = new NioAuctionServer(port, NioAuctionServer.defaultIoThreads(), new NioAuctionServer.Handler() {
+                public void onConnect(NioAuctionServer.Connection c) {
+                    ClientHandler handler = new ClientHandler(c);
+                    c.setAttachment(handler);
+                    metrics.clientConnected(c);
+                    // every client follows the default lot, as in the single-auction protocol
+                    handler.subscribe(defaultLot);
+                    log("Client connected: " + c.getRemoteAddress());
+                }
+
+                public void onLine(NioAuctionServer.Connection c, byte[] line, int length) {
+                    ((ClientHandler) c.getAttachment()).handleClientMessage(line, 0, length);
+                }
+
+                public void onFrame(NioAuctionServer.Connection c, ByteBuffer frame) {
+                    ((ClientHandler) c.getAttachment()).handleFrame(frame);
+                }
+
+                public void onDisconnect(NioAuctionServer.Connection c) {
+                    metrics.clientDisconnected(c);
+                    ClientHandler handler = (ClientHandler) c.getAttachment();
+                    if (handler != null) handler.handleDisconnect();
+                }
+
+                public void onError(NioAuctionServer.Connection c, RuntimeException ex) {
+                    log("Error serving " + c.getRemoteAddress() + ", disconnecting: " + ex);
+                }
+            });
+            s.setSocketConfig(NioAuctionServer.SocketConfig.fromSystemProperties());
+            s.setOutboundConfig(outboundConfig);
+            s.setHeartbeat(heartbeatMillis, idleTimeoutMillis, "PING");
+            s.start();
+            server = s;
+            serverRunning = true;
+            metrics.serverStarted(s);
+            metrics.register(port);
+        }
+        log("Server listening on port " + port);
+    }
+
+    /** Closes the listening socket and every client; lots keep their state. */
+    public void stopNetwork() {
+        synchronized (serverLock) {
+            serverRunning = false;
+            // stopping the server closes every client connection
+            if (server != null) {
+                server.stop();
+                server = null;
+            }
+        }
+        for (Lot lot : lots.all()) {
+            lot.subscribers.clear();
+        }
+    }
+
+    /** Stops the network and the partition threads; the server cannot be restarted. */
+    public void stop() {
+        stopNetwork();
+        // no timer may publish once the partitions are gone
+        scheduler.shutdownNow();
+        // the partitions are the journal's only writers: they finish what is in
+        // their rings first, so everything they handled is in it when it closes
+        if (!lots.stop(STOP_WAIT_MILLIS)) {
+            log("Partitions still busy after " + STOP_WAIT_MILLIS + " ms; closing the journal anyway");
+        }
+        metrics.unregister();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                log("Failed to close journal: " + ex.getMessage());
+            }
+        }
+        eventLog.stop();
+    }
+
+    /** Logs the last count accepted bids of the lot's current auction. Returns false if there is no such lot. */
+    public boolean logHistory(String lotId, int count) {
+        Lot lot = lots.get(lotId);
+        if (lot == null) return false;
+        lots.publish(lot, AuctionSequencer.Command.HISTORY_LAST, null, null, Math.max(1, count));
+        return true;
+    }
+
+    /** Logs the lot's accepted bids placed at or after sinceMillis. Returns false if there is no such lot. */
+    public boolean logHistorySince(String lotId, long sinceMillis) {
+        Lot lot = lots.get(lotId);
+        if (lot == null) return false;
+        lots.publish(lot, AuctionSequencer.Command.HISTORY_SINCE, null, null, sinceMillis);
+        return true;
+    }
+
+    /** Logs every accepted bid of one bidder on the lot. Returns false if there is no such lot. */
+    public boolean logBidderHistory(String lotId, String bidder) {
+        Lot lot = lots.get(lotId);
+        if (lot == null) return false;
+        lots.publish(lot, AuctionSequencer.Command.BIDDER_HISTORY, null, bidder, 0L);
+        return true;
+    }
+
+    /** Opens (or re-announces) a lot; starts listening first if needed. */
+    public void startAuction(String lotId, String item) {
+        startAuction(lotId, item, 0L);
+    }
+
+    /**
+     * As above, but bidding closes by itself after durationMillis (extended by
+     * late bids), then the final bid is requested and the lot ends. 0 leaves
+     * closing to the operator. Throws IllegalArgumentException for an item over
+     * Lot.MAX_ITEM_BYTES.
+     */
+    public void startAuction(String lotId, String item, long durationMillis) {
+        if (item.getBytes(NioAuctionServer.UTF8).length > Lot.MAX_ITEM_BYTES) {
+            throw new IllegalArgumentException("item longer than " + Lot.MAX_ITEM_BYTES + " bytes");
+        }
+        lots.publish(lots.getOrCreate(lotId), AuctionSequencer.Command.START, null, item, Math.max(0L, durationMillis));
+    }
+
+    /** Returns false if there is no such lot. */
+    public boolean endAuction(String lotId) {
+        Lot lot = lots.get(lotId);
+        if (lot == null) return false;
+        lots.publish(lot, AuctionSequencer.Command.END, null, null);
+        return true;
+    }
+
+    /** Asks the high bidder of the lot to confirm. Returns false if there is no such lot. */
+    public boolean requestFinal(String lotId) {
+        Lot lot = lots.get(lotId);
+        if (lot == null) return false;
+        lots.publish(lot, AuctionSequencer.Command.FINAL_REQUEST, null, null);
+        return true;
+    }
+
+    private void log(String text) {
+        eventLog.text(text);
+    }
+
+    // Runs on a partition thread; the journal copies the bytes, so shared arrays are fine
+    private void journal(byte type, long time, long sequence, long amount, Lot lot, byte[] text) {
+        if (journal == null) return;
+        try {
+            journal.append(type, time, sequence, amount, lot.idBytes, text);
+        } catch (IOException ex) {
+            // a failed writer fails every append; the auctions go on unjournaled
+            if (!journalFailureLogged) {
+                journalFailureLogged = true;
+                log("Journal write failed" + label(lot) + ", running without a journal: " + ex.getMessage());
+            }
+        }
+    }
+
+    // Replay, on the constructing thread before the partitions start: only the
+    // state is rebuilt, nothing is sent or logged
+    private void recover(byte type, long time, long sequence, long amount, String lotId, String text) {
+        Lot lot = lots.getOrCreate(lotId);
+        switch (type) {
+            case BidJournal.START:
+                lot.item = text;
+                lot.endsAt = amount;
+                lot.timed = amount > 0;
+                lot.biddingClosed = false;
+                // older journals wrote 0 here
+                lot.startSequence = Math.max(sequence, lot.bidBook.current().sequence);
+                if (!lot.open) {
+                    lot.open = true;
+                    openLots.incrementAndGet();
+                }
+                break;
+            case BidJournal.END:
+                if (lot.open) {
+                    lot.open = false;
+                    openLots.decrementAndGet();
+                }
+                lot.waitingForFinal = false;
+                lot.bidBook.reset();
+                lot.history.clear();
+                lot.defaulted.clear();
+                lot.endsAt = 0L;
+                lot.timed = false;
+                break;
+            case BidJournal.JOIN:
+                // only the live session needed the name; it gets an id again when it bids
+                break;
+            case BidJournal.BID: {
+                int bidder = bidderIds.intern(text);
+                lot.bidBook.restore(sequence, text, bidder, amount, time);
+                lot.rememberBid(lot.bidBook.current());
+                lot.history.add(sequence, bidder, amount, time);
+                extendClose(lot, time);
+                break;
+            }
+            case BidJournal.FINAL_CONFIRMED:
+                lot.waitingForFinal = false;
+                break;
+            case BidJournal.FALLBACK:
+                if (!lot.bidBook.current().isEmpty()) {
+                    lot.defaulted.set(lot.bidBook.current().bidderId);
+                }
+                lot.bidBook.restore(sequence, text, bidderIds.intern(text), amount, time);
+                lot.biddingClosed = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    // SNAPSHOT|<seq>|<state>|<item>|<bidder>|<amount>: all a client needs to catch up; partition thread
+    private static String snapshot(Lot lot) {
+        BidBook.Bid high = lot.bidBook.current();
+        String state = !lot.open ? "CLOSED" : lot.waitingForFinal ? "FINAL" : "OPEN";
+        return "SNAPSHOT|" + high.sequence + "|" + state + "|" + (lot.open && lot.item != null ? lot.item : "")
+                + "|" + (high.isEmpty() ? "" : high.bidder) + "|" + (high.isEmpty() ? "" : Money.format(high.amount));
+    }
+
+    // " [lot x]" for log lines about non-default lots
+    private static String label(Lot lot) {
+        return lot.isDefault() ? "" : " [lot " + lot.id + "]";
+    }
+
+    // Runs on the lot's partition thread, one command at a time, in publish order
+    private void dispatch(AuctionSequencer.Command cmd) {
+        Lot lot = cmd.lot;
+        ClientHandler handler = cmd.conn != null ? (ClientHandler) cmd.conn.getAttachment() : null;
+        switch (cmd.type) {
+            case AuctionSequencer.Command.START:
+                doStartAuction(lot, cmd.text, cmd.amount);
+                break;
+            case AuctionSequencer.Command.END:
+                doEndAuction(lot);
+                break;
+            case AuctionSequencer.Command.FINAL_REQUEST:
+                doFinalBidRequest(lot);
+                break;
+            case AuctionSequencer.Command.JOIN:
+                handler.handleJoin(lot, cmd.text);
+                break;
+            case AuctionSequencer.Command.BID:
+                handler.handleBid(lot, cmd.text, cmd.bidder, cmd.amount, cmd.readNanos);
+                break;
+            case AuctionSequencer.Command.FINAL_CONFIRM:
+                handler.handleFinalConfirm(lot, cmd.text, (int) cmd.amount);
+                break;
+            case AuctionSequencer.Command.FLUSH_BIDS:
+                flushBids(lot);
+                break;
+            case AuctionSequencer.Command.RESUME:
+                handler.handleResume(lot, cmd.text, cmd.amount);
+                break;
+            case AuctionSequencer.Command.CLOSE_DUE:
+                closeDue(lot, cmd.amount);
+                break;
+            case AuctionSequencer.Command.FINAL_TIMEOUT:
+                finalTimeout(lot, cmd.amount);
+                break;
+            case AuctionSequencer.Command.HISTORY_LAST:
+                logBids(lot, "Last bids", Math.max(0, lot.history.size() - (int) Math.min(cmd.amount, Integer.MAX_VALUE)), lot.history.size());
+                break;
+            case AuctionSequencer.Command.HISTORY_SINCE:
+                logBids(lot, "Bids since " + formatTime(cmd.amount), lot.history.firstAtOrAfter(cmd.amount), lot.history.size());
+                break;
+            case AuctionSequencer.Command.BIDDER_HISTORY:
+                logBidderBids(lot, cmd.text);
+                break;
+            case AuctionSequencer.Command.TOP:
+                handler.handleTop(lot, (int) cmd.amount);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void doStartAuction(Lot lot, String item, long durationMillis) {
+        flushBids(lot);
+        long now = System.currentTimeMillis();
+        long startSequence = lot.bidBook.current().sequence;
+        lot.timerGeneration++;
+        lot.timed = durationMillis > 0;
+        lot.endsAt = lot.timed ? now + durationMillis : 0L;
+        lot.biddingClosed = false;
+        journal(BidJournal.START, now, startSequence, lot.endsAt, lot, TextCodec.utf8(item));
+        lot.item = item;
+        lot.startSequence = startSequence;
+        if (!lot.open) {
+            lot.open = true;
+            openLots.incrementAndGet();
+        }
+        log("Auction started for item: " + item + label(lot));
+        // binary clients learn the lot's code before its first BID frame
+        lot.subscribers.broadcastBinaryOnly(BinaryCodec.encodeLot(lot.code, lot.id));
+        lot.broadcast("START|" + item);
+        if (lot.timed) {
+            log("Bidding closes in " + (durationMillis / 1000L) + " s" + label(lot));
+            lot.broadcast("BIDMASTER|CLOSES_IN|" + durationMillis);
+            scheduleTimer(lot, AuctionSequencer.Command.CLOSE_DUE, lot.timerGeneration, durationMillis);
+        }
+
+        if (serverRunning) {
+            log("Server already running on port " + port);
+            return;
+        }
+
+        try {
+            start();
+        } catch (IOException ex) {
+            log("Failed to open server socket on port " + port + ": " + ex.getMessage());
+        }
+    }
+
+    private void doEndAuction(Lot lot) {
+        log("Ending auction..." + label(lot));
+        journal(BidJournal.END, System.currentTimeMillis(), lot.bidBook.current().sequence, 0L, lot, NO_TEXT);
+        flushBids(lot);
+        lot.broadcast("END");
+        if (lot.open) {
+            lot.open = false;
+            openLots.decrementAndGet();
+        }
+        lot.waitingForFinal = false;
+        lot.bidBook.reset();
+        lot.history.clear();
+        lot.defaulted.clear();
+        // pending close and final timers of this auction become no-ops
+        lot.timerGeneration++;
+        lot.finalGeneration++;
+        lot.endsAt = 0L;
+        lot.timed = false;
+        lot.biddingClosed = false;
+        if (openLots.get() == 0 && stopWhenIdle) {
+            stopNetwork();
+            log("Auction ended. All clients disconnected.");
+        } else {
+            log("Auction ended" + label(lot) + ". " + openLots.get() + " lot(s) still running.");
+        }
+    }
+
+    private void doFinalBidRequest(Lot lot) {
+        if (!serverRunning || !lot.open) {
+            log("Auction not running" + label(lot) + ". Start auction first.");
+            return;
+        }
+        BidBook.Bid last = lot.bidBook.current();
+        if (last.isEmpty()) {
+            log("No bids have been placed yet" + label(lot) + "; no last bidder to confirm final bid.");
+            return;
+        }
+        if (lot.waitingForFinal) {
+            log("Already waiting for final confirmation from " + last.bidder + label(lot));
+            return;
+        }
+        lot.waitingForFinal = true;
+        lot.finalGeneration++;
+        if (finalTimeoutMillis > 0) {
+            scheduleTimer(lot, AuctionSequencer.Command.FINAL_TIMEOUT, lot.finalGeneration, finalTimeoutMillis);
+        }
+        // the price being confirmed must reach everyone before the request does
+        flushBids(lot);
+
+        String amount = Money.format(last.amount);
+        log("Requesting final confirmation from last bidder: " + last.bidder + " (amount: $" + amount + ")" + label(lot));
+        // Notify the lot's subscribers (they will enable their final-confirm UI)
+        lot.broadcast("FINAL_REQUEST|" + last.bidder + "|" + amount);
+
+        // Nothing blocks here. FINAL_CONFIRM arrives later as its own command;
+        // once it comes from the high bidder's connection, waitingForFinal is reset.
+    }
+
+    // Partition thread: a timed lot's end time has come, unless late bids moved it
+    private void closeDue(Lot lot, long generation) {
+        if (generation != lot.timerGeneration || !lot.open || lot.endsAt == 0L) return;
+        long left = lot.endsAt - System.currentTimeMillis();
+        if (left > 0) {
+            // extended meanwhile; the timer is only moved when it fires
+            scheduleTimer(lot, AuctionSequencer.Command.CLOSE_DUE, generation, left);
+            return;
+        }
+        lot.endsAt = 0L;
+        lot.biddingClosed = true;
+        log("Bidding closed" + label(lot));
+        if (lot.bidBook.current().isEmpty()) {
+            doEndAuction(lot);
+        } else {
+            doFinalBidRequest(lot);
+        }
+    }
+
+    // Partition thread: the high bidder did not confirm in time
+    private void finalTimeout(Lot lot, long generation) {
+        if (generation != lot.finalGeneration || !lot.waitingForFinal) return;
+        BidBook.Bid last = lot.bidBook.current();
+        String amount = Money.format(last.amount);
+        log("Final confirmation from " + last.bidder + " timed out" + label(lot));
+        lot.waitingForFinal = false;
+        lot.broadcast("BIDMASTER|FINAL_TIMEOUT|" + last.bidder + "|" + amount);
+        if (lot.biddingClosed) {
+            // re-rank: the highest bid of anyone who has not defaulted yet
+            lot.defaulted.set(last.bidderId);
+            int i = lot.history.highestExcluding(lot.defaulted);
+            if (i >= 0) {
+                int bidder = lot.history.bidder(i);
+                String name = bidderIds.name(bidder);
+                BidBook.Bid next = lot.bidBook.award(name, bidder, lot.history.amount(i));
+                journal(BidJournal.FALLBACK, next.timestamp, next.sequence, next.amount, lot, bidderIds.nameBytes(bidder));
+                log("Falling back to " + name + " at $" + Money.format(next.amount) + label(lot));
+                broadcastBid(lot, next, bidder, 0L, null);
+                doFinalBidRequest(lot);
+                return;
+            }
+        }
+        if (lot.timed) {
+            doEndAuction(lot);
+        }
+    }
+
+    // Partition thread: bids [from, to) of the lot's history to the log
+    private void logBids(Lot lot, String title, int from, int to) {
+        BidHistory h = lot.history;
+        StringBuilder sb = new StringBuilder(64 + 48 * (to - from));
+        sb.append(title).append(label(lot)).append(": ").append(to - from).append(" of ").append(h.size()).append(" bid(s)");
+        for (int i = from; i < to; i++) {
+            appendBid(sb.append('\n'), h, i);
+        }
+        log(sb.toString());
+    }
+
+    // Partition thread: one bidder's bids, newest first, by walking their chain
+    private void logBidderBids(Lot lot, String name) {
+        BidHistory h = lot.history;
+        StringBuilder sb = new StringBuilder(128);
+        int count = 0;
+        int bidder = bidderIds.find(name);
+        for (int i = bidder >= 0 ? h.lastOf(bidder) : -1; i >= 0; i = h.previousOf(i)) {
+            appendBid(sb.append('\n'), h, i);
+            count++;
+        }
+        log("Bids of " + name + label(lot) + ": " + count + sb);
+    }
+
+    private void appendBid(StringBuilder sb, BidHistory h, int i) {
+        sb.append("  #").append(h.sequence(i)).append(' ').append(formatTime(h.time(i)))
+                .append(' ').append(bidderIds.name(h.bidder(i))).append(" $").append(Money.format(h.amount(i)));
+    }
+
+    private static String formatTime(long millis) {
+        return new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new Date(millis));
+    }
+
+    // Anti-sniping: a bid (at time) in the soft-close window pushes the end back. Returns true if it did.
+    private boolean extendClose(Lot lot, long time) {
+        long window = softCloseMillis;
+        if (lot.endsAt == 0L || window <= 0 || lot.endsAt - time >= window) return false;
+        lot.endsAt = time + window;
+        return true;
+    }
+
+    // Any thread: runs a timer command on the lot's partition after delayMillis
+    private void scheduleTimer(final Lot lot, final int type, final long generation, long delayMillis) {
+        try {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    lots.publish(lot, type, null, null, generation);
+                }
+            }, Math.max(0L, delayMillis), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // stopping; the lot stays as it is
+        }
+    }
+
+    // Partition thread: sends the winner of a closed coalescing window, if any
+    private void flushBids(Lot lot) {
+        BidCoalescer c = lot.coalescer;
+        if (!c.isPending()) return;
+        broadcastBid(lot, c.winner(), c.winnerBidder(), c.winnerReadNanos(), coalesceDigest ? c.digest(bidderIds) : null);
+        c.clear();
+    }
+
+    private Runnable flushTask(final Lot lot) {
+        if (lot.coalescer.flushTask == null) {
+            lot.coalescer.flushTask = new Runnable() {
+                public void run() {
+                    lots.publish(lot, AuctionSequencer.Command.FLUSH_BIDS, null, null);
+                }
+            };
+        }
+        return lot.coalescer.flushTask;
+    }
+
+    // Partition thread: one accepted bid to every subscriber, with an optional digest line in the same frame
+    private void broadcastBid(Lot lot, BidBook.Bid bid, int bidder, long readNanos, String digest) {
+        if (!lot.announcedBidders.get(bidder)) {
+            lot.announcedBidders.set(bidder);
+            lot.subscribers.broadcastBinaryOnly(BinaryCodec.encodeBidder(bidder, bidderIds.name(bidder)));
+        }
+        // price updates may be conflated for clients that cannot keep up
+        ByteBuffer text = TextCodec.encodeBid(bidderIds.nameBytes(bidder), bid.amount, lot.suffixBytes);
+        ByteBuffer binary = BinaryCodec.encodeBid(lot.code, bidder, bid.amount, bid.sequence);
+        if (digest != null) {
+            String line = lot.tag(digest);
+            text = NioAuctionServer.concat(NioAuctionServer.encodeLine(line), text);
+            binary = NioAuctionServer.concat(BinaryCodec.encodeText(line), binary);
+        }
+        if (readNanos == 0L) {
+            // not a bid just read from a client (a fallback); nothing to time
+            lot.subscribers.broadcast(text, binary, lot.code);
+            return;
+        }
+        long fanOutStart = System.nanoTime();
+        lot.subscribers.broadcast(text, binary, lot.code, metrics.newDelivery(readNanos));
+        metrics.fanOut(System.nanoTime() - fanOutStart);
+    }
+
+    // ClientHandler holds the protocol state of one connection; all I/O is done by the NIO server.
+    // handleClientMessage and subscription changes run on the reactor thread; the
+    // handleJoin/Bid/FinalConfirm methods run on the partition thread of the lot involved.
+    private class ClientHandler {
+        private final NioAuctionServer.Connection conn;
+        private volatile String clientName = null;
+        private volatile int bidderId = -1;
+        private boolean pinned = false;                             // reactor thread only
+        private final TextCodec.Line line = new TextCodec.Line();   // reactor thread only
+        private final Set<Lot> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<Lot, Boolean>());
+
+        ClientHandler(NioAuctionServer.Connection conn) {
+            this.conn = conn;
+        }
+
+        // sends the lot's code to binary clients even when already subscribed
+        // (the default lot is subscribed at connect, before JOIN_BINARY)
+        void subscribe(Lot lot) {
+            subscriptions.add(lot);
+            lot.subscribers.add(conn);
+            if (conn.isBinary()) {
+                conn.sendBinary(BinaryCodec.encodeLot(lot.code, lot.id));
+            }
+        }
+
+        void unsubscribe(Lot lot) {
+            subscriptions.remove(lot);
+            lot.subscribers.remove(conn);
+        }
+
+        // Runs on the reactor thread. BID and FINAL_CONFIRM go from bytes to a
+        // published command without creating any garbage.
+        void handleClientMessage(byte[] bytes, int off, int len) {
+            int type = TextCodec.parse(bytes, off, len, line);
+            eventLog.received(bytes, off, len);
+
+            switch (type) {
+                case TextCodec.BID: {
+                    // BID|<name>|<amount>[|<lot>]
+                    if (line.fieldCount() < 2) return;
+                    long readNanos = System.nanoTime();
+                    metrics.bidReceived();
+                    Lot lot = lotField(2);
+                    if (lot == null) {
+                        metrics.bidRejected();
+                        sendMessage("BIDMASTER|REJECTED|" + line.fieldString(1) + "|no such lot|" + line.fieldString(2));
+                        return;
+                    }
+                    // parsed here so the partition thread only compares numbers
+                    long cents = line.fieldCents(1);
+                    if (cents <= 0) {
+                        metrics.bidRejected();
+                        eventLog.invalidAmount(bytes, off, len);
+                        sendMessage(lot.tag("BIDMASTER|REJECTED|" + line.fieldString(1) + "|invalid amount"));
+                        return;
+                    }
+                    if (!isOwnName(bytes, line.fieldOffset(0), line.fieldLength(0))) {
+                        metrics.bidRejected();
+                        sendMessage(lot.tag("BIDMASTER|REJECTED|" + line.fieldString(1) + "|" + notJoinedReason()));
+                        return;
+                    }
+                    if (!pinName()) return;
+                    lots.publishBid(lot, conn, clientName, bidderId, cents, readNanos);
+                    break;
+                }
+                case TextCodec.FINAL_CONFIRM: {
+                    // FINAL_CONFIRM|<name>[|<lot>]
+                    Lot lot = lotField(1);
+                    if (lot == null) return;
+                    if (!isOwnName(bytes, line.fieldOffset(0), line.fieldLength(0))) {
+                        log("FINAL_CONFIRM for " + line.fieldString(0) + " from a connection joined as " + clientName + ". Ignoring.");
+                        return;
+                    }
+                    if (!pinName()) return;
+                    lots.publish(lot, AuctionSequencer.Command.FINAL_CONFIRM, conn, clientName, bidderId);
+                    break;
+                }
+                case TextCodec.JOIN:
+                case TextCodec.JOIN_BINARY: {
+                    // JOIN|<name>[|<lot>] or JOIN_BINARY|<name>[|<lot>]
+                    if (line.fieldLength(0) == 0) return;
+                    // lots are created by the operator only, never by a client
+                    Lot lot = lotField(1);
+                    if (lot == null) {
+                        sendMessage("BIDMASTER|REJECTED|" + line.fieldString(0) + "|no such lot|" + line.fieldString(1));
+                        return;
+                    }
+                    if (!bind(bytes, line.fieldOffset(0), line.fieldLength(0))) return;
+                    String name = clientName;
+                    if (type == TextCodec.JOIN_BINARY) {
+                        conn.switchToBinary("BIDMASTER|BINARY|" + bidderId);
+                    }
+                    subscribe(lot);
+                    lots.publish(lot, AuctionSequencer.Command.JOIN, conn, name);
+                    break;
+                }
+                case TextCodec.RESUME: {
+                    // RESUME|<name>|<seq>[|<lot>]
+                    if (line.fieldCount() < 2 || line.fieldLength(0) == 0) return;
+                    long seq;
+                    try {
+                        seq = Long.parseLong(line.fieldString(1));
+                    } catch (NumberFormatException ex) {
+                        sendMessage("BIDMASTER|REJECTED|" + line.fieldString(1) + "|invalid sequence");
+                        return;
+                    }
+                    Lot lot = lotField(2);
+                    if (lot == null) {
+                        sendMessage("BIDMASTER|REJECTED|" + line.fieldString(0) + "|no such lot|" + line.fieldString(2));
+                        return;
+                    }
+                    if (!bind(bytes, line.fieldOffset(0), line.fieldLength(0))) return;
+                    String name = clientName;
+                    subscribe(lot);
+                    lots.publishResume(lot, conn, name, bidderId, seq);
+                    break;
+                }
+                case TextCodec.SUBSCRIBE: {
+                    if (line.fieldLength(0) == 0) return;
+                    Lot lot = lotField(0);
+                    if (lot == null) {
+                        sendMessage("BIDMASTER|REJECTED|" + line.fieldString(0) + "|no such lot");
+                        return;
+                    }
+                    subscribe(lot);
+                    sendMessage("BIDMASTER|INFO|subscribed to lot " + lot.id);
+                    break;
+                }
+                case TextCodec.TOP: {
+                    // TOP|<n>[|<lot>]
+                    if (line.fieldCount() < 1) return;
+                    int n;
+                    try {
+                        n = Integer.parseInt(line.fieldString(0));
+                    } catch (NumberFormatException ex) {
+                        return;
+                    }
+                    Lot lot = lotField(1);
+                    if (lot != null) {
+                        lots.publish(lot, AuctionSequencer.Command.TOP, conn, null, n);
+                    }
+                    break;
+                }
+                case TextCodec.PONG:
+                    // heartbeat answer; reading it already counted as activity
+                    break;
+                case TextCodec.UNSUBSCRIBE: {
+                    Lot lot = lotField(0);
+                    if (lot != null) unsubscribe(lot);
+                    break;
+                }
+                default:
+                    log("Unknown message from client: " + line);
+                    break;
+            }
+        }
+
+        // Binds the connection to the name in b[off, off+len) on its first JOIN or
+        // RESUME; later ones must use the same name. Replies REJECTED and returns
+        // false when the name is taken or differs from the bound one.
+        private boolean bind(byte[] b, int off, int len) {
+            if (bidderId >= 0) {
+                if (isOwnName(b, off, len)) return true;
+                sendMessage("BIDMASTER|REJECTED|" + line.fieldString(0) + "|already joined as " + clientName);
+                return false;
+            }
+            // a holder that let a whole heartbeat interval pass after its PING is
+            // presumed dead (half-open after a network drop) and gives the name up
+            long hb = heartbeatMillis;
+            int id = sessions.claim(b, off, len, conn, hb > 0 ? 2 * hb : 0L);
+            if (id == SessionRegistry.FULL) {
+                log("Refused name " + line.fieldString(0) + " from " + conn.getRemoteAddress() + ": too many bidders");
+                sendMessage("BIDMASTER|REJECTED|" + line.fieldString(0) + "|server full");
+                return false;
+            }
+            if (id < 0) {
+                log("Refused name " + line.fieldString(0) + " from " + conn.getRemoteAddress() + ": in use");
+                sendMessage("BIDMASTER|REJECTED|" + line.fieldString(0) + "|" + ClientProtocol.NAME_IN_USE);
+                return false;
+            }
+            clientName = bidderIds.name(id);
+            bidderId = id;
+            return true;
+        }
+
+        // Before the first BID or FINAL_CONFIRM: the id goes into commands and
+        // bids from here on, so it must stay this name's (SessionRegistry.pin).
+        // False once the connection has lost its name, i.e. it is closing.
+        private boolean pinName() {
+            if (!pinned) pinned = sessions.pin(bidderId, conn);
+            return pinned;
+        }
+
+        // true when b[off, off+len) is the name this connection joined under; one byte compare, no String
+        private boolean isOwnName(byte[] b, int off, int len) {
+            byte[] own = bidderIds.nameBytes(bidderId);
+            if (own == null || own.length != len) return false;
+            for (int i = 0; i < len; i++) {
+                if (own[i] != b[off + i]) return false;
+            }
+            return true;
+        }
+
+        private String notJoinedReason() {
+            return bidderId < 0 ? "join first" : "joined as " + clientName;
+        }
+
+        // the optional lot id in field i of the current line, or the default lot
+        private Lot lotField(int i) {
+            if (line.fieldCount() <= i) return defaultLot;
+            return lots.get(line.bytes(), line.fieldOffset(i), line.fieldLength(i));
+        }
+
+        // Binary frames; runs on the reactor thread, allocation-free for BID
+        void handleFrame(ByteBuffer frame) {
+            byte op = frame.get();
+            if (op == BinaryCodec.OP_BID) {
+                if (frame.remaining() < BinaryCodec.CLIENT_BID_PAYLOAD) {
+                    dropMalformed(op);
+                    return;
+                }
+                long readNanos = System.nanoTime();
+                metrics.bidReceived();
+                int code = frame.getInt();
+                long cents = frame.getLong();
+                Lot lot = lots.byCode(code);
+                if (!Money.isValid(cents)) {
+                    // a raw long off the wire: echoed as sent, Money.format only takes valid amounts
+                    metrics.bidRejected();
+                    log("Invalid bid amount " + cents + " from " + clientName);
+                    String reply = "BIDMASTER|REJECTED|" + cents + "|invalid amount";
+                    sendMessage(lot != null ? lot.tag(reply) : reply);
+                    return;
+                }
+                if (lot == null) {
+                    metrics.bidRejected();
+                    sendMessage("BIDMASTER|REJECTED|" + Money.format(cents) + "|no such lot");
+                    return;
+                }
+                if (bidderId < 0) {
+                    metrics.bidRejected();
+                    sendMessage(lot.tag("BIDMASTER|REJECTED|" + Money.format(cents) + "|" + notJoinedReason()));
+                    return;
+                }
+                if (!pinName()) return;
+                lots.publishBid(lot, conn, clientName, bidderId, cents, readNanos);
+            } else if (op == BinaryCodec.OP_FINAL_CONFIRM) {
+                if (frame.remaining() < BinaryCodec.CLIENT_FINAL_CONFIRM_PAYLOAD) {
+                    dropMalformed(op);
+                    return;
+                }
+                Lot lot = lots.byCode(frame.getInt());
+                if (lot != null && bidderId >= 0 && pinName()) {
+                    lots.publish(lot, AuctionSequencer.Command.FINAL_CONFIRM, conn, clientName, bidderId);
+                }
+            } else if (op == BinaryCodec.OP_TEXT) {
+                handleClientMessage(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            } else {
+                log("Unknown binary frame " + op + " from " + clientName);
+            }
+        }
+
+        // a frame shorter than its opcode's fields: not a client we can talk to
+        private void dropMalformed(byte op) {
+            log("Short binary frame " + op + " from " + clientName + ", disconnecting");
+            conn.close();
+        }
+
+        void handleJoin(Lot lot, String name) {
+            // from the name, not the id: a session that leaves without bidding gives its id back
+            journal(BidJournal.JOIN, System.currentTimeMillis(), 0L, 0L, lot, name.getBytes(NioAuctionServer.UTF8));
+            log("Client joined as: " + name + label(lot));
+            // Optionally broadcast join to others
+            lot.broadcast("BIDMASTER|INFO|" + name + " joined.");
+            // a late joiner learns the item and the price at once
+            sendMessage(lot.tag(snapshot(lot)));
+            if (lot.endsAt > 0) {
+                sendMessage(lot.tag("BIDMASTER|CLOSES_IN|" + Math.max(0L, lot.endsAt - System.currentTimeMillis())));
+            }
+        }
+
+        // BIDMASTER|TOP|<count>|<name>:<amount>,... the n highest bids, highest first
+        void handleTop(Lot lot, int n) {
+            BidHistory h = lot.history;
+            int count = Math.max(0, Math.min(n, Math.min(TOP_MAX, h.size())));
+            StringBuilder sb = new StringBuilder(32 + 24 * count);
+            sb.append("BIDMASTER|TOP|").append(count).append('|');
+            for (int k = 0; k < count; k++) {
+                int i = h.size() - 1 - k;
+                if (k > 0) sb.append(',');
+                sb.append(bidderIds.name(h.bidder(i))).append(':').append(Money.format(h.amount(i)));
+            }
+            sendMessage(lot.tag(sb.toString()));
+        }
+
+        // A reconnecting client that saw the lot up to bid seq: it gets only the
+        // bids it missed (or one SNAPSHOT when those are not all remembered, or
+        // the auction changed meanwhile) and nobody else hears about it.
+        // Bids held in a coalescing window are left out: the client is already
+        // subscribed, so the flush brings it the winner with everyone else.
+        void handleResume(Lot lot, String name, long seq) {
+            log("Client resumed as: " + name + " from bid #" + seq + label(lot));
+            BidBook.Bid high = lot.bidBook.current();
+            long upTo = lot.coalescer.isPending() ? lot.coalescer.heldAfter() : high.sequence;
+            boolean delta = lot.open && !lot.waitingForFinal && seq > lot.startSequence
+                    && seq <= high.sequence && high.sequence - seq <= Lot.RECENT_BIDS;
+            for (long s = seq + 1; delta && s <= upTo; s++) {
+                delta = lot.recentBid(s) != null;
+            }
+            if (!delta) {
+                sendMessage(lot.tag(snapshot(lot)));
+                return;
+            }
+            for (long s = seq + 1; s <= upTo; s++) {
+                BidBook.Bid b = lot.recentBid(s);
+                int id = b.bidderId;
+                if (conn.isBinary()) {
+                    conn.sendBinary(BinaryCodec.encodeBidder(id, b.bidder));
+                }
+                conn.sendEncoded(TextCodec.encodeBid(bidderIds.nameBytes(id), b.amount, lot.suffixBytes),
+                        BinaryCodec.encodeBid(lot.code, id, b.amount, b.sequence), OutboundQueue.NOT_CONFLATABLE, null);
+            }
+            sendMessage(lot.tag("BIDMASTER|RESUMED|" + Math.max(seq, upTo)));
+        }
+
+        void handleBid(Lot lot, String name, int bidder, long cents, long readNanos) {
+            if (!Money.isValid(cents)) {
+                // both readers validate first; this only guards the formatting below
+                metrics.bidRejected();
+                log("Invalid bid amount " + cents + " from " + name + label(lot));
+                sendMessage(lot.tag("BIDMASTER|REJECTED|" + cents + "|invalid amount"));
+                return;
+            }
+            if (!lot.open) {
+                metrics.bidRejected();
+                sendMessage(lot.tag("BIDMASTER|REJECTED|" + Money.format(cents) + "|auction not running"));
+                return;
+            }
+            if (lot.biddingClosed) {
+                metrics.bidRejected();
+                sendMessage(lot.tag("BIDMASTER|REJECTED|" + Money.format(cents) + "|bidding closed"));
+                return;
+            }
+            long increment = minIncrementCents;
+            BidBook.Bid accepted = lot.bidBook.place(name, bidder, cents, increment);
+            if (accepted == null) {
+                BidBook.Bid high = lot.bidBook.current();
+                metrics.bidRejected();
+                eventLog.bidRejected(lot, bidder, cents, high.amount);
+                String reason = increment == 1L
+                        ? "current high is " + Money.format(high.amount)
+                        : "minimum bid is " + Money.format(high.minimumNext(increment));
+                sendMessage(lot.tag("BIDMASTER|REJECTED|" + Money.format(cents) + "|" + reason));
+                return;
+            }
+            journal(BidJournal.BID, accepted.timestamp, accepted.sequence, accepted.amount, lot, bidderIds.nameBytes(bidder));
+            lot.rememberBid(accepted);
+            lot.history.add(accepted.sequence, bidder, accepted.amount, accepted.timestamp);
+            eventLog.bidAccepted(lot, bidder, accepted.amount, accepted.sequence);
+            metrics.bidAccepted();
+            if (extendClose(lot, accepted.timestamp)) {
+                lot.broadcast("BIDMASTER|CLOSES_IN|" + (lot.endsAt - accepted.timestamp));
+            }
+            int window = coalesceMillis;
+            if (window > 0) {
+                // hold the broadcast; a higher bid within the window replaces this one
+                if (lot.coalescer.add(accepted, bidder, readNanos)) {
+                    scheduler.schedule(flushTask(lot), window, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            broadcastBid(lot, accepted, bidder, readNanos, null);
+        }
+
+        // bidder is the confirming connection's id; the high bid's id must match
+        void handleFinalConfirm(Lot lot, String name, int bidder) {
+            if (!lot.waitingForFinal) {
+                log("Received FINAL_CONFIRM from " + name + " but no final was requested." + label(lot));
+                return;
+            }
+            BidBook.Bid last = lot.bidBook.current();
+            if (!last.isEmpty() && last.bidderId == bidder) {
+                String amount = Money.format(last.amount);
+                log("Final bid confirmed by " + name + " for $" + amount + label(lot));
+                journal(BidJournal.FINAL_CONFIRMED, System.currentTimeMillis(), last.sequence, last.amount, lot, bidderIds.nameBytes(bidder));
+                lot.broadcast("BIDMASTER|FINAL_CONFIRMED|" + name + "|" + amount);
+                lot.waitingForFinal = false;
+                if (lot.timed) {
+                    // a timed lot is finished once its winner confirms
+                    doEndAuction(lot);
+                }
+                // Otherwise we'll not automatically end auction here; user can press End Auction manually.
+            } else {
+                log("FINAL_CONFIRM received from " + name + " but last bidder is " + last.bidder + ". Ignoring." + label(lot));
+            }
+        }
+
+        // may run on any thread (the reactor, or a broadcaster that dropped a slow client)
+        void handleDisconnect() {
+            for (Lot lot : subscriptions) {
+                lot.subscribers.remove(conn);
+            }
+            subscriptions.clear();
+            // the name is free for a new connection (a reconnect of the same bidder)
+            sessions.release(bidderId, conn);
+            log("Client disconnected: " + clientName);
+        }
+
+        void sendMessage(String msg) {
+            conn.send(msg);
+        }
+
+        void closeConnection() {
+            conn.close();
+        }
+    }
+
+    // main: headless, reads operator commands from stdin.
+    // -Dauction.journal=<file> picks the journal, an empty value runs without one;
+    // -Dauction.log=<file> also writes the log to a file.
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String journalPath = System.getProperty("auction.journal", DEFAULT_JOURNAL);
+        String logPath = System.getProperty("auction.log", "");
+        final AuctionServer server = journalPath.length() == 0
+                ? new AuctionServer(port)
+                : new AuctionServer(port, new File(journalPath));
+        server.addListener(new AuctionListener() {
+            public void onLog(String line) {
+                System.out.println(line);
+            }
+        });
+        if (logPath.length() > 0) {
+            server.setLogFile(new File(logPath));
+        }
+        if (server.getRecoveryReport() != null) {
+            System.out.println(server.getRecoveryReport());
+        }
+        server.start();
+        if (args.length > 1) {
+            server.startAuction(Lot.DEFAULT_ID, args[1]);
+        }
+        // SIGTERM / Ctrl-C stop the server cleanly, with or without a console
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final CountDownLatch shutdown = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                if (stopped.compareAndSet(false, true)) server.stop();
+                shutdown.countDown();
+            }
+        }, "auction-shutdown"));
+        System.out.println("Commands: start <lot> <item> | timed <lot> <seconds> <item> | final <lot> | end <lot>"
+                + " | history <lot> [<count> | <seconds>s] | bids <lot> <bidder> | stats | quit");
+
+        BufferedReader console = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+        String line;
+        boolean quit = false;
+        while ((line = console.readLine()) != null) {
+            String[] parts = line.trim().split("\\s+", 3);
+            String cmd = parts[0];
+            String lot = parts.length > 1 ? parts[1] : Lot.DEFAULT_ID;
+            if (cmd.equals("start") && parts.length > 2) {
+                try {
+                    server.startAuction(lot, parts[2]);
+                } catch (IllegalArgumentException ex) {
+                    System.out.println("Not started: " + ex.getMessage());
+                }
+            } else if (cmd.equals("timed") && parts.length > 2) {
+                String[] rest = parts[2].split("\\s+", 2);
+                try {
+                    if (rest.length < 2) throw new NumberFormatException();
+                    server.startAuction(lot, rest[1], Long.parseLong(rest[0]) * 1000L);
+                } catch (NumberFormatException ex) {
+                    System.out.println("Usage: timed <lot> <seconds> <item>");
+                } catch (IllegalArgumentException ex) {
+                    System.out.println("Not started: " + ex.getMessage());
+                }
+            } else if (cmd.equals("history")) {
+                String arg = parts.length > 2 ? parts[2] : "20";
+                boolean found;
+                try {
+                    found = arg.endsWith("s")
+                            ? server.logHistorySince(lot, System.currentTimeMillis() - 1000L * Long.parseLong(arg.substring(0, arg.length() - 1)))
+                            : server.logHistory(lot, Integer.parseInt(arg));
+                } catch (NumberFormatException ex) {
+                    System.out.println("Usage: history <lot> [<count> | <seconds>s]");
+                    continue;
+                }
+                if (!found) System.out.println("No such lot: " + lot);
+            } else if (cmd.equals("bids") && parts.length > 2) {
+                if (!server.logBidderHistory(lot, parts[2])) System.out.println("No such lot: " + lot);
+            } else if (cmd.equals("final")) {
+                if (!server.requestFinal(lot)) System.out.println("No such lot: " + lot);
+            } else if (cmd.equals("end")) {
+                if (!server.endAuction(lot)) System.out.println("No such lot: " + lot);
+            } else if (cmd.equals("stats")) {
+                System.out.println(server.getMetrics().snapshot());
+            } else if (cmd.equals("quit")) {
+                quit = true;
+                break;
+            } else if (cmd.length() > 0) {
+                System.out.println("Unknown command: " + line);
+            }
+        }
+        if (!quit) {
+            // no more operator commands, but the auctions go on
+            System.out.println("Console closed; serving until stopped (SIGTERM).");
+            try {
+                shutdown.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (stopped.compareAndSet(false, true)) server.stop();
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * BidBook
+ * - Holds the current high bid of one auction as a single immutable Bid object
+ * - place() accepts a bid with one compare-and-set, so bidder, amount and
+ *   sequence number always belong to the same bid, no matter how many reader
+ *   threads race
+ * - Bids below the current high plus the minimum increment are rejected
+ *   with one primitive comparison, without allocating anything
+ * - Every accepted bid gets the next sequence number (monotonic, never reused,
+ *   also across reset())
+ *
+ * Amounts are whole cents (see Money). A bid also carries the bidder's id
+ * (BidderIds) when the caller has one, so the server compares ids, not names.
+ */
+public class BidBook {
+
+    /** An accepted bid; immutable. */
+    public static final class Bid {
+        public final long sequence;
+        public final String bidder;   // null only for the "no bid yet" marker
+        public final int bidderId;    // -1 when unknown
+        public final long amount;
+        public final long timestamp;
+
+        Bid(long sequence, String bidder, int bidderId, long amount, long timestamp) {
+            this.sequence = sequence;
+            this.bidder = bidder;
+            this.bidderId = bidderId;
+            this.amount = amount;
+            this.timestamp = timestamp;
+        }
+
+        public boolean isEmpty() {
+            return bidder == null;
+        }
+
+        /** Lowest amount that beats this bid by minIncrement; any positive amount beats "no bid". */
+        public long minimumNext(long minIncrement) {
+            return bidder == null ? 1L : amount + minIncrement;
+        }
+    }
+
+    private final AtomicReference<Bid> current = new AtomicReference<Bid>(new Bid(0L, null, -1, 0L, 0L));
+
+    /**
+     * Tries to make (bidder, amount) the new high bid. Returns the accepted Bid,
+     * or null if amount is not strictly higher than the current high bid.
+     */
+    public Bid place(String bidder, long amount) {
+        return place(bidder, -1, amount, 1L);
+    }
+
+    /**
+     * As above, but amount must beat the current high bid by at least
+     * minIncrement cents (both valid Money amounts, so the sum cannot overflow).
+     */
+    public Bid place(String bidder, int bidderId, long amount, long minIncrement) {
+        if (bidder == null) throw new IllegalArgumentException("bidder");
+        Bid next = null;
+        while (true) {
+            Bid cur = current.get();
+            if (amount < cur.minimumNext(minIncrement)) {
+                return null;
+            }
+            if (next == null || next.sequence != cur.sequence + 1) {
+                next = new Bid(cur.sequence + 1, bidder, bidderId, amount, System.currentTimeMillis());
+            }
+            if (current.compareAndSet(cur, next)) {
+                return next;
+            }
+            // lost the race; re-check against the bid that won
+        }
+    }
+
+    /** Current high bid; isEmpty() when nothing has been accepted since the last reset. */
+    public Bid current() {
+        return current.get();
+    }
+
+    /**
+     * Makes (bidder, amount) the high bid even though it is lower, with a new
+     * sequence number: the winner did not confirm and the next bidder takes
+     * over. Only once bidding has closed.
+     */
+    public Bid award(String bidder, int bidderId, long amount) {
+        while (true) {
+            Bid cur = current.get();
+            Bid next = new Bid(cur.sequence + 1, bidder, bidderId, amount, System.currentTimeMillis());
+            if (current.compareAndSet(cur, next)) return next;
+        }
+    }
+
+    /** Clears the high bid for a new auction; sequence numbers keep counting up. */
+    public void reset() {
+        while (true) {
+            Bid cur = current.get();
+            if (current.compareAndSet(cur, new Bid(cur.sequence, null, -1, 0L, 0L))) return;
+        }
+    }
+
+    /**
+     * Installs a bid recovered from a journal as the current high bid, keeping
+     * its original sequence number. Only for replay, before any bidding starts.
+     */
+    public void restore(long sequence, String bidder, int bidderId, long amount, long timestamp) {
+        current.set(new Bid(sequence, bidder, bidderId, amount, timestamp));
+    }
+}
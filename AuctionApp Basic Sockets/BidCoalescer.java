@@ -0,0 +1,86 @@
+/**
+ * BidCoalescer
+ * - Per-lot state of the broadcast coalescing window (see
+ *   AuctionServer.setCoalesceMillis)
+ * - The first accepted bid opens a window; every further bid accepted before
+ *   it closes replaces the pending winner, and the one it displaced is kept
+ *   for the optional digest (the last DIGEST_ENTRIES of them, plus a count)
+ * - When the window closes only the winner is broadcast, so a burst of n bids
+ *   costs one frame per client instead of n
+ * - Owned by the lot's partition thread; no locking, nothing allocated per bid
+ */
+final class BidCoalescer {
+
+    static final int DIGEST_ENTRIES = 8;
+
+    private BidBook.Bid winner;
+    private int winnerBidder;
+    private long winnerReadNanos;
+    private long heldAfter;   // last sequence broadcast before this window opened
+
+    private int outbid = 0;   // bids displaced in this window
+    private final int[] outbidBidders = new int[DIGEST_ENTRIES];
+    private final long[] outbidAmounts = new long[DIGEST_ENTRIES];
+
+    Runnable flushTask;   // created once per lot by the server
+
+    boolean isPending() {
+        return winner != null;
+    }
+
+    /** Records an accepted bid. Returns true if it opened a new window (the caller schedules the flush). */
+    boolean add(BidBook.Bid bid, int bidder, long readNanos) {
+        boolean opened = winner == null;
+        if (opened) {
+            heldAfter = bid.sequence - 1;
+        } else {
+            int slot = outbid % DIGEST_ENTRIES;
+            outbidBidders[slot] = winnerBidder;
+            outbidAmounts[slot] = winner.amount;
+            outbid++;
+        }
+        winner = bid;
+        winnerBidder = bidder;
+        winnerReadNanos = readNanos;
+        return opened;
+    }
+
+    BidBook.Bid winner() {
+        return winner;
+    }
+
+    int winnerBidder() {
+        return winnerBidder;
+    }
+
+    long winnerReadNanos() {
+        return winnerReadNanos;
+    }
+
+    /** While pending: the last sequence subscribers were sent; every bid after it is held. */
+    long heldAfter() {
+        return heldAfter;
+    }
+
+    /**
+     * "BIDMASTER|OUTBID|<count>|<name>:<amount>,..." listing the most recent
+     * displaced bids oldest first, or null if the winner stood alone.
+     */
+    String digest(BidderIds ids) {
+        if (outbid == 0) return null;
+        StringBuilder sb = new StringBuilder(32 + 24 * Math.min(outbid, DIGEST_ENTRIES));
+        sb.append("BIDMASTER|OUTBID|").append(outbid).append('|');
+        int shown = Math.min(outbid, DIGEST_ENTRIES);
+        for (int i = outbid - shown; i < outbid; i++) {
+            int slot = i % DIGEST_ENTRIES;
+            if (i > outbid - shown) sb.append(',');
+            sb.append(ids.name(outbidBidders[slot])).append(':').append(Money.format(outbidAmounts[slot]));
+        }
+        return sb.toString();
+    }
+
+    void clear() {
+        winner = null;
+        outbid = 0;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * BidHistory
+ * - Every accepted bid of one lot's current auction, in acceptance order, for
+ *   disputes, top-N views and falling back to the next bidder when the winner
+ *   does not confirm
+ * - Struct of arrays in fixed-size chunks: sequence, amount and time (longs),
+ *   bidder id and the index of the same bidder's previous bid (ints); 32 bytes
+ *   per bid, no object per bid, and growing never copies the bids already held
+ * - Accepted amounts strictly increase (BidBook), and times are kept
+ *   non-decreasing, so the history is already sorted by both:
+ *   top N is the last N entries, a time range is two binary searches
+ *   (O(log n)), and a bidder's bids are a chain walked newest first
+ *
+ * Owned by the lot's partition thread; queries are published as commands.
+ */
+final class BidHistory {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;   // 4096 bids per chunk
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private long[][] sequences = new long[4][];
+    private long[][] amounts = new long[4][];
+    private long[][] times = new long[4][];
+    private int[][] bidders = new int[4][];
+    private int[][] previousOfBidder = new int[4][];
+    private int size = 0;
+
+    // bidder id -> index of that bidder's latest bid, -1 if none
+    private int[] lastOfBidder = new int[64];
+
+    BidHistory() {
+        Arrays.fill(lastOfBidder, -1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(long sequence, int bidder, long amount, long time) {
+        int i = size;
+        int chunk = i >>> CHUNK_BITS;
+        if (chunk == sequences.length) {
+            int n = chunk * 2;
+            sequences = Arrays.copyOf(sequences, n);
+            amounts = Arrays.copyOf(amounts, n);
+            times = Arrays.copyOf(times, n);
+            bidders = Arrays.copyOf(bidders, n);
+            previousOfBidder = Arrays.copyOf(previousOfBidder, n);
+        }
+        if (sequences[chunk] == null) {
+            sequences[chunk] = new long[CHUNK_SIZE];
+            amounts[chunk] = new long[CHUNK_SIZE];
+            times[chunk] = new long[CHUNK_SIZE];
+            bidders[chunk] = new int[CHUNK_SIZE];
+            previousOfBidder[chunk] = new int[CHUNK_SIZE];
+        }
+        if (bidder >= lastOfBidder.length) {
+            int old = lastOfBidder.length;
+            lastOfBidder = Arrays.copyOf(lastOfBidder, Math.max(bidder + 1, old * 2));
+            Arrays.fill(lastOfBidder, old, lastOfBidder.length, -1);
+        }
+        int k = i & CHUNK_MASK;
+        sequences[chunk][k] = sequence;
+        amounts[chunk][k] = amount;
+        // a wall clock stepping back must not unsort the times
+        times[chunk][k] = i > 0 ? Math.max(time, time(i - 1)) : time;
+        bidders[chunk][k] = bidder;
+        previousOfBidder[chunk][k] = lastOfBidder[bidder];
+        lastOfBidder[bidder] = i;
+        size = i + 1;
+    }
+
+    /** Forgets every bid (the auction ended); the chunks are kept for the next one. */
+    void clear() {
+        Arrays.fill(lastOfBidder, -1);
+        size = 0;
+    }
+
+    long sequence(int i) {
+        return sequences[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    long amount(int i) {
+        return amounts[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    long time(int i) {
+        return times[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    int bidder(int i) {
+        return bidders[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    /** Index of the bidder's latest (and therefore highest) bid, or -1. */
+    int lastOf(int bidder) {
+        return bidder < lastOfBidder.length ? lastOfBidder[bidder] : -1;
+    }
+
+    /** Index of the same bidder's bid before bid i, or -1. */
+    int previousOf(int i) {
+        return previousOfBidder[i >>> CHUNK_BITS][i & CHUNK_MASK];
+    }
+
+    /** Index of the first bid at or after timeMillis (size() if none). */
+    int firstAtOrAfter(long timeMillis) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (time(mid) < timeMillis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Index of the highest bid whose bidder is not in excluded, or -1. */
+    int highestExcluding(BitSet excluded) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (!excluded.get(bidder(i))) return i;
+        }
+        return -1;
+    }
+}
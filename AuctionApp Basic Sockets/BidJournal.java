@@ -0,0 +1,286 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * BidJournal
+ * - Append-only file of everything that changes auction state: START, END,
+ *   JOIN, accepted BIDs, confirmed finals and fallbacks to the next bidder
+ * - Group commit: appenders copy a record into the active in-memory batch and
+ *   return; one writer thread swaps batches, writes the whole batch with one
+ *   FileChannel.write and one fsync, so a burst of bids shares a single fsync
+ * - Write-behind, not write-ahead: append() returns before the record is on
+ *   disk, and the server acknowledges and broadcasts a bid right after
+ *   appending it. A crash (kill -9, power loss) therefore loses the records of
+ *   the last syncIntervalMillis plus the batch being written at that moment;
+ *   close() (a normal stop) writes everything appended before it
+ * - If the writer fails, every later append() throws the failure at once,
+ *   including appenders waiting for batch space; nothing blocks on a dead writer
+ * - replay() memory-maps the file and streams every valid record to a Visitor;
+ *   a torn record at the tail (crash mid-write) is detected by its length or
+ *   CRC and cut off. A bad record with more data after it is corruption, not a
+ *   crash: the rest of the file is copied to <file>.corrupt-<offset> before
+ *   the journal is cut there, and getTruncationReport() says so
+ *
+ * Record: [i32 body length][body][i32 crc32 of body]
+ * body:   [u8 type][i64 time][i64 sequence][i64 amount][u16 len][lot][u16 len][text]
+ */
+public class BidJournal implements Closeable {
+
+    public static final byte START = 1;
+    public static final byte END = 2;
+    public static final byte JOIN = 3;
+    public static final byte BID = 4;
+    public static final byte FINAL_CONFIRMED = 5;
+    public static final byte FALLBACK = 6;   // the winner did not confirm; text names the new high bidder
+
+    private static final int HEADER = 1 + 8 + 8 + 8;
+    private static final int BATCH_BYTES = 1 << 20;
+    public static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    /** Receives the records of a journal in file order. Strings are only built for START/JOIN/BID names. */
+    public interface Visitor {
+        void onRecord(byte type, long time, long sequence, long amount, String lot, String text);
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final long syncIntervalMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasData = lock.newCondition();
+    private final Condition hasSpace = lock.newCondition();
+    private ByteBuffer active = ByteBuffer.allocate(BATCH_BYTES);   // guarded by lock
+    private ByteBuffer writing = ByteBuffer.allocate(BATCH_BYTES);  // writer thread only
+    private final CRC32 crc = new CRC32();                          // guarded by lock
+
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    // what replay() cut off; null when the file was intact
+    private String truncationReport;
+
+    /**
+     * Opens (creating if needed) the journal for appending. Call replay() before
+     * appending anything if the previous contents matter.
+     * syncIntervalMillis bounds how long a record may sit in memory when traffic is low.
+     */
+    public BidJournal(File file, long syncIntervalMillis) throws IOException {
+        this.file = file;
+        this.syncIntervalMillis = Math.max(1L, syncIntervalMillis);
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "auction-journal");
+        this.writer.setDaemon(true);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Streams all intact records to the visitor, truncates a torn tail and
+     * positions the file for appending. Returns the number of records read.
+     */
+    public long replay(Visitor visitor) throws IOException {
+        long size = channel.size();
+        long count = 0;
+        long good = 0;
+        long pos = 0;
+        long recordEnd = 0;   // end of the last record whose length was plausible
+        boolean corrupt = false;
+        CRC32 check = new CRC32();
+        byte[] scratch = new byte[256];
+        // map in chunks so files beyond 2 GB still work; a record crossing a chunk
+        // end is simply read again at the start of the next chunk
+        while (pos < size) {
+            long chunk = Math.min(size - pos, 1L << 30);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, pos, chunk);
+            int consumed = 0;
+            while (map.remaining() >= 4) {
+                int bodyLen = map.getInt(map.position());
+                if (bodyLen < HEADER + 4 || bodyLen > BATCH_BYTES) {
+                    corrupt = true;
+                    break;
+                }
+                if (map.remaining() < 4 + bodyLen + 4) break;
+                recordEnd = pos + map.position() + 4 + bodyLen + 4;
+                map.position(map.position() + 4);
+                if (scratch.length < bodyLen) scratch = new byte[bodyLen * 2];
+                map.get(scratch, 0, bodyLen);
+                int storedCrc = map.getInt();
+                check.reset();
+                check.update(scratch, 0, bodyLen);
+                if ((int) check.getValue() != storedCrc) {
+                    corrupt = true;
+                    break;
+                }
+                decode(scratch, bodyLen, visitor);
+                count++;
+                consumed = map.position();
+            }
+            good = pos + consumed;
+            if (corrupt || consumed == 0 || pos + chunk >= size) break;
+            pos += consumed;
+        }
+        if (good < size) {
+            // a bad record that is not the last thing in the file hides later ones
+            boolean midFile = corrupt && recordEnd < size;
+            if (midFile) {
+                File copy = new File(file.getPath() + ".corrupt-" + good);
+                saveTail(good, size, copy);
+                truncationReport = "journal corrupt at offset " + good + ": " + (size - good)
+                        + " bytes after it were not replayed (saved to " + copy + ")";
+            } else {
+                truncationReport = "torn record of " + (size - good) + " bytes cut off at offset " + good;
+            }
+            channel.truncate(good);
+        }
+        channel.position(good);
+        return count;
+    }
+
+    /** What replay() had to cut off the file, or null if it was intact. */
+    public String getTruncationReport() {
+        return truncationReport;
+    }
+
+    public void start() {
+        writer.start();
+    }
+
+    /**
+     * Appends one record to the current batch. Never waits for the disk, only
+     * (briefly) for batch space when the writer is behind by a whole batch.
+     * Throws the writer's failure once it has failed.
+     */
+    public void append(byte type, long time, long sequence, long amount, byte[] lot, byte[] text) throws IOException {
+        IOException failed = failure;
+        if (failed != null) throw failed;
+        // lengths are u16 on disk; a longer field would wrap and misframe replay
+        if (lot.length > MAX_FIELD_BYTES || text.length > MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("journal field too long: " + Math.max(lot.length, text.length) + " bytes");
+        }
+        int bodyLen = HEADER + 2 + lot.length + 2 + text.length;
+        int recordLen = 4 + bodyLen + 4;
+        if (recordLen > BATCH_BYTES) throw new IOException("journal record too large: " + recordLen);
+        lock.lock();
+        try {
+            while (active.remaining() < recordLen) {
+                failed = failure;
+                if (failed != null) throw failed;
+                hasData.signal();
+                hasSpace.awaitUninterruptibly();
+            }
+            ByteBuffer b = active;
+            b.putInt(bodyLen);
+            int bodyStart = b.position();
+            b.put(type).putLong(time).putLong(sequence).putLong(amount);
+            b.putShort((short) lot.length).put(lot);
+            b.putShort((short) text.length).put(text);
+            crc.reset();
+            crc.update(b.array(), bodyStart, bodyLen);
+            b.putInt((int) crc.getValue());
+            hasData.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Flushes what is buffered, fsyncs and stops the writer. */
+    public void close() throws IOException {
+        running = false;
+        lock.lock();
+        try {
+            hasData.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(5000L);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                if (active.position() == 0) {
+                    if (!running) return;
+                    try {
+                        hasData.await(syncIntervalMillis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ex) {
+                        // checked again below
+                    }
+                }
+                if (active.position() == 0) continue;
+                // swap: appenders keep filling the other batch while this one hits the disk
+                ByteBuffer full = active;
+                active = writing;
+                writing = full;
+                hasSpace.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                channel.force(false);
+            } catch (IOException ex) {
+                // wake appenders waiting for space: they throw instead of waiting forever
+                lock.lock();
+                try {
+                    failure = ex;
+                    hasSpace.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            } finally {
+                writing.clear();
+            }
+        }
+    }
+
+    // copies [from, to) of the journal to copy, for whoever investigates the corruption
+    private void saveTail(long from, long to, File copy) throws IOException {
+        FileChannel out = new FileOutputStream(copy).getChannel();
+        try {
+            long done = 0;
+            while (from + done < to) {
+                done += channel.transferTo(from + done, to - from - done, out);
+            }
+            out.force(false);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void decode(byte[] body, int len, Visitor visitor) {
+        ByteBuffer b = ByteBuffer.wrap(body, 0, len);
+        byte type = b.get();
+        long time = b.getLong();
+        long sequence = b.getLong();
+        long amount = b.getLong();
+        int lotLen = b.getShort() & 0xFFFF;
+        String lot = new String(body, b.position(), lotLen, NioAuctionServer.UTF8);
+        b.position(b.position() + lotLen);
+        int textLen = b.getShort() & 0xFFFF;
+        String text = textLen == 0 ? "" : new String(body, b.position(), textLen, NioAuctionServer.UTF8);
+        visitor.onRecord(type, time, sequence, amount, lot, text);
+    }
+}
@@ -2,24 +2,39 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.*;
 
 /**
  * BidMakerWindow (Client)
- * - Join Auction: connects to localhost:5000 and sends JOIN|<name>
- * - Bid: sends BID|<name>|<amount>
+ * - Join Auction: connects to localhost:5000 and sends JOIN|<name>; joining
+ *   again under the same name after a disconnect sends RESUME|<name>|<seq>
+ *   instead, so only the bids missed meanwhile are sent back
+ * - If the connection drops on its own (not END, not closing the window) the
+ *   client reconnects by itself with jittered exponential backoff and resumes
+ *   the session; the random delay spreads a crowd of clients that lost the
+ *   server at the same moment over the whole backoff interval
+ * - Bid: sends BID|<name>|<amount> once the amount parses (Money) and beats
+ *   the last high bid seen; the server still has the final word
+ * - The server binds the name to the connection, so bids and the final
+ *   confirm always use the name joined with, whatever the name field says
+ *   now; a RESUME refused because the server still holds the old connection
+ *   is retried with the reconnect backoff
  * - Yes! Final Bid!: sends FINAL_CONFIRM|<name> (only when a FINAL_REQUEST is received)
+ * - Top Bids: sends TOP|<n> and lists the n highest bids of the auction, highest first
  *
- * Client listens to server messages and appends them to textarea.
+ * Client listens to server messages and appends them to a bounded LogView.
  */
 public class BidMakerWindow extends JFrame {
 
     private JTextField nameField;
     private JButton joinButton;
     private JButton finalBidButton;
-    private JTextArea logArea;
+    private LogView logView;
     private JTextField bidAmountField;
     private JButton bidButton;
+    private JButton topButton;
 
     // Networking
     private Socket socket;
@@ -29,6 +44,24 @@ public class BidMakerWindow extends JFrame {
     private volatile boolean connected = false;
     private volatile boolean finalRequested = false;
 
+    // Session: kept across disconnects so a rejoin can resume
+    private volatile String sessionName = null;
+    private volatile long lastSeq = -1L;   // last known bid sequence of the main lot, -1 before a SNAPSHOT
+    private volatile boolean resuming = false;   // RESUME sent, no SNAPSHOT/RESUMED yet
+    private volatile long highCents = 0L;  // last high bid seen on the main lot, 0 = none
+
+    // Automatic reconnect: delay before attempt n is random in [BASE, BASE + min(MAX, BASE * 2^n))
+    private static final long RECONNECT_BASE_MILLIS = 250L;
+    private static final long RECONNECT_MAX_MILLIS = 30000L;
+    private volatile boolean autoReconnect = false;   // true while a session should survive a drop
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    // grows with every reconnect; reset only once the server answers with a
+    // SNAPSHOT or RESUMED, so a server that accepts and drops at once is not hammered
+    private volatile int reconnectAttempts = 0;
+
+    // how many bids Top Bids asks for
+    private static final int TOP_COUNT = 10;
+
     // Server host/port
     private final String HOST = "localhost";
     private final int PORT = 5000;
@@ -69,11 +102,8 @@ public class BidMakerWindow extends JFrame {
         topPanel.add(rightTopPanel, BorderLayout.EAST);
 
         // Center
-        logArea = new JTextArea();
-        logArea.setFont(new Font("Monospaced", Font.PLAIN, 15));
-        logArea.setEditable(false);
-        JScrollPane scrollPane = new JScrollPane(logArea);
-        scrollPane.setBorder(BorderFactory.createTitledBorder("Auction Log"));
+        // bounded log: old lines scroll out instead of growing the window's memory
+        logView = new LogView("Auction Log", new Font("Monospaced", Font.PLAIN, 15));
 
         // Bottom
         JPanel bottomPanel = new JPanel(new BorderLayout());
@@ -91,10 +121,16 @@ public class BidMakerWindow extends JFrame {
         rightBottomPanel.add(bidAmountField);
         rightBottomPanel.add(bidButton);
 
+        JPanel leftBottomPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
+        topButton = new JButton("Top Bids");
+        topButton.setFont(font);
+        leftBottomPanel.add(topButton);
+
+        bottomPanel.add(leftBottomPanel, BorderLayout.WEST);
         bottomPanel.add(rightBottomPanel, BorderLayout.EAST);
 
         add(topPanel, BorderLayout.NORTH);
-        add(scrollPane, BorderLayout.CENTER);
+        add(logView, BorderLayout.CENTER);
         add(bottomPanel, BorderLayout.SOUTH);
 
         // Actions
@@ -116,20 +152,23 @@ public class BidMakerWindow extends JFrame {
             }
         });
 
+        topButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                onTop();
+            }
+        });
+
         addWindowListener(new WindowAdapter() {
             public void windowClosing(WindowEvent e) {
+                autoReconnect = false;
                 closeConnection();
             }
         });
     }
 
-    private void appendLog(final String text) {
-        SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-                logArea.append(text + "\n");
-                logArea.setCaretPosition(logArea.getDocument().getLength());
-            }
-        });
+    // any thread; LogView batches the lines into one EDT update per frame
+    private void appendLog(String text) {
+        logView.append(text);
     }
 
     private void onJoin() {
@@ -144,32 +183,96 @@ public class BidMakerWindow extends JFrame {
             appendLog("Already connected to server.");
             return;
         }
+        if (reconnecting.get()) {
+            appendLog("Reconnecting to server, please wait.");
+            return;
+        }
 
-        // Connect in background thread
-        Thread t = new Thread(new Runnable() {
+        // Connect in background thread (virtual with -Dauction.virtualThreads=true)
+        Thread t = Threads.newBlockingThread(new Runnable() {
             public void run() {
-                try {
-                    socket = new Socket(HOST, PORT);
-                    in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-                    out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
-                    connected = true;
-                    // Send JOIN message
-                    out.println("JOIN|" + name);
-                    appendLog("Sent JOIN|" + name + " to server.");
-                    // start reading thread
-                    startReadThread();
-                } catch (IOException ex) {
-                    appendLog("Failed to connect to server: " + ex.getMessage());
+                if (!connect(name)) {
                     closeConnection();
                 }
             }
-        });
-        t.setDaemon(true);
+        }, "bidmaker-connect");
         t.start();
     }
 
+    // Opens the socket and sends JOIN, or RESUME for the current session. Blocking; returns false on failure.
+    private boolean connect(String name) {
+        try {
+            socket = new Socket(HOST, PORT);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+            connected = true;
+            if (name.equals(sessionName) && lastSeq >= 0) {
+                // same bidder coming back: catch up instead of joining again
+                resuming = true;
+                out.println(ClientProtocol.resume(name, lastSeq));
+                appendLog("Sent RESUME|" + name + "|" + lastSeq + " to server.");
+            } else {
+                sessionName = name;
+                lastSeq = -1L;
+                resuming = false;
+                out.println(ClientProtocol.join(name));
+                appendLog("Sent JOIN|" + name + " to server.");
+            }
+            autoReconnect = true;
+            // start reading thread
+            startReadThread();
+            return true;
+        } catch (IOException ex) {
+            appendLog("Failed to connect to server: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // The server went away under us: keep trying until connected, the user
+    // joins by hand, the auction ends or the window closes.
+    private void startReconnect() {
+        if (!reconnecting.compareAndSet(false, true)) return;
+        Thread t = Threads.newBlockingThread(new Runnable() {
+            public void run() {
+                appendLog("Connection to server lost.");
+                boolean own = true;   // this thread holds the reconnecting flag
+                try {
+                    while (autoReconnect && !connected) {
+                        int attempt = reconnectAttempts++;
+                        long delay = reconnectDelay(attempt);
+                        appendLog("Reconnecting in " + delay + " ms (attempt " + (attempt + 1) + ")...");
+                        Thread.sleep(delay);
+                        if (!autoReconnect || connected) return;
+                        // a session without a SNAPSHOT yet resumes from 0 and gets one
+                        if (lastSeq < 0) lastSeq = 0L;
+                        // released before connect() starts the reader, so a connection
+                        // that drops right away can start the next round itself
+                        reconnecting.set(false);
+                        own = false;
+                        if (connect(sessionName)) return;
+                        closeConnection();
+                        if (!reconnecting.compareAndSet(false, true)) return;
+                        own = true;
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (own) reconnecting.set(false);
+                }
+            }
+        }, "bidmaker-reconnect");
+        t.start();
+    }
+
+    // Full jitter over an exponentially growing window, so clients that dropped
+    // together do not come back together
+    private static long reconnectDelay(int attempt) {
+        long window = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << Math.min(attempt, 20));
+        return RECONNECT_BASE_MILLIS + ThreadLocalRandom.current().nextLong(window);
+    }
+
     private void startReadThread() {
-        readThread = new Thread(new Runnable() {
+        readThread = Threads.newBlockingThread(new Runnable() {
             public void run() {
                 try {
                     String line;
@@ -179,23 +282,76 @@ public class BidMakerWindow extends JFrame {
                 } catch (IOException ex) {
                     // connection closed or error
                 } finally {
+                    // still "connected" here means the server went away, not us
+                    boolean lost = connected;
                     closeConnection();
+                    if (lost && autoReconnect) startReconnect();
                 }
             }
-        });
-        readThread.setDaemon(true);
+        }, "bidmaker-reader");
         readThread.start();
     }
 
     private void handleServerMessage(final String msg) {
+        if (msg.equals("PING")) {
+            // heartbeat from a server that has not heard from us for a while
+            PrintWriter w = out;
+            if (w != null) w.println(ClientProtocol.pong());
+            return;
+        }
         appendLog("Server: " + msg);
 
         if (msg.startsWith("START|")) {
             // Example: START|<item>
             // nothing special on client UI besides log
+            if (ClientProtocol.field(msg, 2) == null) highCents = 0L;
         } else if (msg.startsWith("BID|")) {
-            // BID|name|amount
-            // nothing extra
+            // BID|name|amount; counting them can only underestimate the sequence
+            // (conflated updates are skipped), which at worst resends a few bids
+            if (ClientProtocol.field(msg, 3) == null) {
+                if (lastSeq >= 0) lastSeq++;
+                long cents = Money.parse(ClientProtocol.field(msg, 2));
+                if (cents > highCents) highCents = cents;
+            }
+        } else if (msg.startsWith(ClientProtocol.SNAPSHOT_PREFIX)) {
+            // SNAPSHOT|seq|state|item|bidder|amount
+            if (ClientProtocol.field(msg, 6) == null) {
+                reconnectAttempts = 0;
+                resuming = false;
+                lastSeq = Long.parseLong(ClientProtocol.field(msg, 1));
+                highCents = Math.max(0L, Money.parse(ClientProtocol.field(msg, 5)));
+                String item = ClientProtocol.field(msg, 3);
+                String bidder = ClientProtocol.field(msg, 4);
+                appendLog("Auction " + ClientProtocol.field(msg, 2).toLowerCase()
+                        + (item.length() > 0 ? " for " + item : "")
+                        + (bidder.length() > 0 ? ", high bid $" + ClientProtocol.field(msg, 5) + " by " + bidder : ", no bids yet"));
+            }
+        } else if (msg.startsWith(ClientProtocol.REJECTED_PREFIX)
+                && ClientProtocol.NAME_IN_USE.equals(ClientProtocol.field(msg, 3))
+                && ClientProtocol.field(msg, 2).equals(sessionName)) {
+            if (resuming) {
+                // the server still holds our old connection; it gives the name up
+                // once that one misses a heartbeat, so drop this one and retry
+                appendLog("Previous connection still active on the server, retrying.");
+                dropSocket();
+            } else {
+                appendLog("The name " + sessionName + " is taken, choose another one.");
+                autoReconnect = false;
+                sessionName = null;
+                closeConnection();
+            }
+        } else if (msg.startsWith(ClientProtocol.TOP_PREFIX)) {
+            // BIDMASTER|TOP|count|name:amount,...
+            if (ClientProtocol.field(msg, 4) == null) {
+                logTop(ClientProtocol.field(msg, 3));
+            }
+        } else if (msg.startsWith(ClientProtocol.RESUMED_PREFIX)) {
+            if (ClientProtocol.field(msg, 3) == null) {
+                reconnectAttempts = 0;
+                resuming = false;
+                lastSeq = Long.parseLong(ClientProtocol.field(msg, 2));
+                appendLog("Session resumed.");
+            }
         } else if (msg.startsWith("FINAL_REQUEST")) {
             // Could be "FINAL_REQUEST" or "FINAL_REQUEST|<name>|<amount>" (master implementation sends latter)
             finalRequested = true;
@@ -224,8 +380,19 @@ public class BidMakerWindow extends JFrame {
                     finalBidButton.setEnabled(false);
                 }
             });
-        } else if (msg.startsWith("END")) {
+        } else if (msg.startsWith("BIDMASTER|FINAL_TIMEOUT|")) {
+            // the high bidder did not confirm in time
+            finalRequested = false;
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    finalBidButton.setEnabled(false);
+                }
+            });
+        } else if (msg.equals("END")) {
+            // END|<lot> only ends another lot this client may follow
             appendLog("Server ended the auction.");
+            highCents = 0L;
+            autoReconnect = false;
             closeConnection();
         } else {
             // Other informational messages
@@ -233,23 +400,35 @@ public class BidMakerWindow extends JFrame {
     }
 
     private void onBid() {
-        final String amount = bidAmountField.getText().trim();
-        if (amount.length() == 0) {
+        final String text = bidAmountField.getText().trim();
+        if (text.length() == 0) {
             appendLog("Please enter a bid amount.");
             return;
         }
+        // parsed once here; what goes on the wire is the normalised amount
+        long cents = Money.parse(text);
+        if (cents < 0) {
+            appendLog("Invalid amount: " + text + " (use e.g. 12 or 12.50)");
+            return;
+        }
+        if (cents <= highCents) {
+            appendLog("Your bid must be higher than the current high bid of $" + Money.format(highCents) + ".");
+            return;
+        }
+        final String amount = Money.format(cents);
         if (!connected || out == null) {
             appendLog("You are not connected to server. Press Join Auction first.");
             return;
         }
-        final String name = nameField.getText().trim();
-        if (name.length() == 0) {
-            appendLog("Name is empty. Please enter your name.");
+        // the name this connection joined under; the server refuses any other
+        final String name = sessionName;
+        if (name == null) {
+            appendLog("You have not joined yet. Press Join Auction first.");
             return;
         }
 
         // Send BID|name|amount
-        out.println("BID|" + name + "|" + amount);
+        out.println(ClientProtocol.bid(name, amount));
         appendLog("Your bid: $" + amount + " (sent)");
     }
 
@@ -262,13 +441,13 @@ public class BidMakerWindow extends JFrame {
             appendLog("Not connected to server.");
             return;
         }
-        final String name = nameField.getText().trim();
-        if (name.length() == 0) {
-            appendLog("Name is empty.");
+        final String name = sessionName;
+        if (name == null) {
+            appendLog("You have not joined yet.");
             return;
         }
         // Send FINAL_CONFIRM|name
-        out.println("FINAL_CONFIRM|" + name);
+        out.println(ClientProtocol.finalConfirm(name));
         appendLog("You confirmed the final bid (sent).");
         // disable button until next final request
         finalRequested = false;
@@ -279,6 +458,40 @@ public class BidMakerWindow extends JFrame {
         });
     }
 
+    private void onTop() {
+        PrintWriter w = out;
+        if (!connected || w == null) {
+            appendLog("You are not connected to server. Press Join Auction first.");
+            return;
+        }
+        w.println(ClientProtocol.top(TOP_COUNT));
+    }
+
+    // "alice:12.50,bob:12.00" -> one numbered log line per bid
+    private void logTop(String list) {
+        if (list == null || list.length() == 0) {
+            appendLog("Top bids: no bids yet.");
+            return;
+        }
+        appendLog("Top bids:");
+        String[] bids = list.split(",");
+        for (int i = 0; i < bids.length; i++) {
+            int colon = bids[i].lastIndexOf(':');
+            if (colon < 0) continue;
+            appendLog("  " + (i + 1) + ". $" + bids[i].substring(colon + 1) + " by " + bids[i].substring(0, colon));
+        }
+    }
+
+    // Closes the socket under the reader, which then sees a lost connection and reconnects
+    private void dropSocket() {
+        Socket s = socket;
+        try {
+            if (s != null) s.close();
+        } catch (IOException ex) {
+            // closing anyway
+        }
+    }
+
     private void closeConnection() {
         connected = false;
         finalRequested = false;
@@ -0,0 +1,218 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * BidderIds
+ * - Interns bidder names into small dense ints
+ * - Lookups go straight from the UTF-8 bytes of a parsed line, so a known
+ *   bidder costs one hash and one byte compare, and no String is built
+ * - Reads are lock-free (open-addressing table published through volatile
+ *   slots); adding or removing a name takes a lock
+ * - intern() ids are permanent. A session id (internSession, for a name that
+ *   has only joined) is freed again by releaseSession unless it was pinned
+ *   first, so bidders that come and go without bidding do not grow the table;
+ *   at most maxIds ids exist at once
+ */
+public class BidderIds {
+
+    private static final int TOMBSTONE = -1;   // slot of a released id; lookups probe past it
+
+    private static final class Table {
+        final AtomicIntegerArray slots;   // id + 1, 0 = empty, TOMBSTONE = removed
+        final int mask;
+        int used;                         // filled and tombstoned slots; guarded by BidderIds.this
+
+        Table(int capacity) {
+            slots = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(256);
+    private volatile String[] names = new String[128];   // indexed by id, grown by copy
+    private volatile byte[][] nameBytes = new byte[128][];
+    private final int maxIds;
+    private int next = 0;                                 // guarded by this
+    private boolean[] pinned = new boolean[128];          // guarded by this
+    private int[] free = new int[16];                     // released ids, reused first; guarded by this
+    private int freeCount = 0;                            // guarded by this
+
+    public BidderIds() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public BidderIds(int maxIds) {
+        this.maxIds = Math.max(1, maxIds);
+    }
+
+    public int intern(String name) {
+        byte[] b = name.getBytes(NioAuctionServer.UTF8);
+        return intern(b, 0, b.length);
+    }
+
+    /**
+     * Permanent id for the name in b[off, off+len) (journal replay, bids);
+     * allocates only the first time a name is seen.
+     */
+    public int intern(byte[] b, int off, int len) {
+        int hash = hash(b, off, len);
+        int id = find(table, b, off, len, hash);
+        if (id < 0) {
+            synchronized (this) {
+                id = find(table, b, off, len, hash);
+                if (id < 0) id = add(b, off, len, hash);
+            }
+        }
+        pin(id);
+        return id;
+    }
+
+    /**
+     * Id for a name a session claims: an existing id, or a new one that
+     * releaseSession frees again unless it is pinned meanwhile. Returns -1
+     * when maxIds ids are in use.
+     */
+    public int internSession(byte[] b, int off, int len) {
+        int hash = hash(b, off, len);
+        int id = find(table, b, off, len, hash);
+        if (id >= 0) return id;
+        synchronized (this) {
+            id = find(table, b, off, len, hash);
+            if (id >= 0) return id;
+            if (next - freeCount >= maxIds) return -1;
+            return add(b, off, len, hash);
+        }
+    }
+
+    /** Id of a known name, or -1; never adds one. */
+    public int find(byte[] b, int off, int len) {
+        return find(table, b, off, len, hash(b, off, len));
+    }
+
+    public int find(String name) {
+        byte[] b = name.getBytes(NioAuctionServer.UTF8);
+        return find(b, 0, b.length);
+    }
+
+    /** Makes id permanent: bids, the history or the journal refer to it. */
+    public synchronized void pin(int id) {
+        if (id >= 0 && id < next) pinned[id] = true;
+    }
+
+    /** Frees a session id that was never pinned; its name is forgotten and the id reused. */
+    public synchronized void releaseSession(int id) {
+        if (id < 0 || id >= next || pinned[id] || nameBytes[id] == null) return;
+        byte[] name = nameBytes[id];
+        Table t = table;
+        int i = hash(name, 0, name.length) & t.mask;
+        while (true) {
+            int v = t.slots.get(i);
+            if (v == 0) return;   // not in the table; cannot happen for a live id
+            if (v == id + 1) break;
+            i = (i + 1) & t.mask;
+        }
+        t.slots.set(i, TOMBSTONE);
+        names[id] = null;
+        nameBytes[id] = null;
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = id;
+    }
+
+    // caller holds the lock and has checked the name is not in the table
+    private int add(byte[] b, int off, int len, int hash) {
+        int assigned = freeCount > 0 ? free[--freeCount] : next++;
+        byte[] copy = new byte[len];
+        System.arraycopy(b, off, copy, 0, len);
+        String[] n = names;
+        byte[][] nb = nameBytes;
+        if (assigned >= n.length) {
+            String[] grownNames = new String[n.length * 2];
+            byte[][] grownBytes = new byte[n.length * 2][];
+            System.arraycopy(n, 0, grownNames, 0, n.length);
+            System.arraycopy(nb, 0, grownBytes, 0, nb.length);
+            n = grownNames;
+            nb = grownBytes;
+            pinned = Arrays.copyOf(pinned, n.length);
+        }
+        n[assigned] = new String(copy, NioAuctionServer.UTF8);
+        nb[assigned] = copy;
+        pinned[assigned] = false;
+        names = n;
+        nameBytes = nb;
+
+        Table t = table;
+        if ((t.used + 1) * 2 > t.slots.length()) {
+            // tombstones are dropped on the way; grow only for live names
+            int live = next - freeCount;
+            t = rehash(live * 4 > t.slots.length() ? t.slots.length() * 2 : t.slots.length(), assigned);
+        }
+        insert(t, hash, assigned);
+        table = t;
+        return assigned;
+    }
+
+    public String name(int id) {
+        String[] n = names;
+        return id >= 0 && id < n.length ? n[id] : null;
+    }
+
+    /** UTF-8 bytes of the name; shared, must not be modified. */
+    public byte[] nameBytes(int id) {
+        byte[][] nb = nameBytes;
+        return id >= 0 && id < nb.length ? nb[id] : null;
+    }
+
+    private int find(Table t, byte[] b, int off, int len, int hash) {
+        int i = hash & t.mask;
+        while (true) {
+            int v = t.slots.get(i);
+            if (v == 0) return -1;
+            if (v != TOMBSTONE) {
+                int id = v - 1;
+                // read after the volatile slot read, so the name stored before the slot is visible;
+                // null when the id was released meanwhile
+                byte[] candidate = nameBytes[id];
+                if (candidate != null && equals(candidate, b, off, len)) return id;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    // caller holds the lock; copies the live ids but skip (inserted next) into a new table
+    private Table rehash(int capacity, int skip) {
+        Table t = new Table(capacity);
+        byte[][] nb = nameBytes;
+        for (int id = 0; id < next; id++) {
+            byte[] name = nb[id];
+            if (name != null && id != skip) insert(t, hash(name, 0, name.length), id);
+        }
+        return t;
+    }
+
+    // a tombstone is reused; the caller made sure the name is not further along
+    private static void insert(Table t, int hash, int id) {
+        int i = hash & t.mask;
+        int v;
+        while ((v = t.slots.get(i)) != 0 && v != TOMBSTONE) {
+            i = (i + 1) & t.mask;
+        }
+        if (v == 0) t.used++;
+        t.slots.set(i, id + 1);
+    }
+
+    private static int hash(byte[] b, int off, int len) {
+        int h = 0x811C9DC5;
+        for (int i = off; i < off + len; i++) {
+            h = (h ^ b[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(byte[] a, byte[] b, int off, int len) {
+        if (a.length != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[off + i]) return false;
+        }
+        return true;
+    }
+}
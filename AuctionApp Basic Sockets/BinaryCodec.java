@@ -0,0 +1,85 @@
+import java.nio.ByteBuffer;
+
+/**
+ * BinaryCodec
+ * - Compact framing used instead of text lines once a client has negotiated it
+ *   with JOIN_BINARY|<name>[|<lot>] (server answers BIDMASTER|BINARY|<bidderId>
+ *   as its last text line, both sides switch right after it)
+ * - Frame: [u16 length of the rest][u8 opcode][fixed-width fields], big endian
+ * - Amounts are cents (i64); bidders and lots are interned ints, so a bid is a
+ *   few dozen bytes and is decoded without allocating
+ *
+ * Client -> server:
+ *   BID           i32 lot, i64 cents         (bidder is the connection's JOIN name)
+ *   FINAL_CONFIRM i32 lot
+ *   TEXT          utf8 line                  (anything else, e.g. SUBSCRIBE|<lot>)
+ * Server -> client:
+ *   BID           i32 lot, i32 bidder, i64 cents, i64 sequence
+ *   BIDDER        i32 bidder, utf8 name      (sent before the first BID of a bidder in a lot)
+ *   LOT           i32 lot, utf8 lot id       (sent with START so clients can map lot codes)
+ *   TEXT          utf8 line                  (every other message, as in the text protocol)
+ */
+public final class BinaryCodec {
+
+    public static final byte OP_BID = 1;
+    public static final byte OP_FINAL_CONFIRM = 2;
+    public static final byte OP_BIDDER = 3;
+    public static final byte OP_LOT = 4;
+    public static final byte OP_TEXT = 127;
+
+    public static final int BID_FRAME_SIZE = 2 + 1 + 4 + 4 + 8 + 8;
+
+    // fixed payload after the opcode of the client -> server frames
+    public static final int CLIENT_BID_PAYLOAD = 4 + 8;
+    public static final int CLIENT_FINAL_CONFIRM_PAYLOAD = 4;
+
+    private BinaryCodec() {
+    }
+
+    /** Server -> client BID. */
+    public static ByteBuffer encodeBid(int lot, int bidder, long cents, long sequence) {
+        ByteBuffer b = ByteBuffer.allocate(BID_FRAME_SIZE);
+        b.putShort((short) (BID_FRAME_SIZE - 2)).put(OP_BID).putInt(lot).putInt(bidder).putLong(cents).putLong(sequence);
+        b.flip();
+        return b.asReadOnlyBuffer();
+    }
+
+    public static ByteBuffer encodeBidder(int bidder, String name) {
+        return encodeIdAndText(OP_BIDDER, bidder, name);
+    }
+
+    public static ByteBuffer encodeLot(int lot, String lotId) {
+        return encodeIdAndText(OP_LOT, lot, lotId);
+    }
+
+    public static ByteBuffer encodeText(String line) {
+        byte[] bytes = line.getBytes(NioAuctionServer.UTF8);
+        ByteBuffer b = ByteBuffer.allocate(3 + bytes.length);
+        b.putShort((short) (1 + bytes.length)).put(OP_TEXT).put(bytes);
+        b.flip();
+        return b.asReadOnlyBuffer();
+    }
+
+    /**
+     * Wraps an encoded text line (as made by NioAuctionServer.encodeLine) into a
+     * TEXT frame without going through a String again.
+     */
+    public static ByteBuffer wrapTextLine(ByteBuffer line) {
+        ByteBuffer src = line.duplicate();
+        int len = src.remaining();
+        if (len > 0 && src.get(src.limit() - 1) == '\n') len--;
+        src.limit(src.position() + len);
+        ByteBuffer b = ByteBuffer.allocate(3 + len);
+        b.putShort((short) (1 + len)).put(OP_TEXT).put(src);
+        b.flip();
+        return b.asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer encodeIdAndText(byte op, int id, String text) {
+        byte[] bytes = text.getBytes(NioAuctionServer.UTF8);
+        ByteBuffer b = ByteBuffer.allocate(7 + bytes.length);
+        b.putShort((short) (5 + bytes.length)).put(op).putInt(id).put(bytes);
+        b.flip();
+        return b.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,129 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * BroadcastGroup
+ * - Lock-free, copy-on-write set of subscribed connections
+ * - Joins/leaves swap in a new array with a CAS; broadcasts read the current
+ *   array without any lock, so accepts, disconnects and other broadcasts never
+ *   wait behind a fan-out in progress
+ * - Each message is encoded to bytes once and the same buffer is handed to
+ *   every subscriber (once per protocol when text and binary clients are mixed)
+ * - For large groups that buffer is first copied to direct memory, so the
+ *   reactors' socket writes use it as is instead of each copying it again
+ */
+public class BroadcastGroup {
+
+    private static final NioAuctionServer.Connection[] EMPTY = new NioAuctionServer.Connection[0];
+
+    // from this many members on, one copy to direct memory is cheaper than a copy per write
+    static final int DIRECT_MIN_MEMBERS = 64;
+
+    private final AtomicReference<NioAuctionServer.Connection[]> members =
+            new AtomicReference<NioAuctionServer.Connection[]>(EMPTY);
+
+    public void add(NioAuctionServer.Connection c) {
+        while (true) {
+            NioAuctionServer.Connection[] cur = members.get();
+            for (NioAuctionServer.Connection m : cur) {
+                if (m == c) return;
+            }
+            NioAuctionServer.Connection[] next = new NioAuctionServer.Connection[cur.length + 1];
+            System.arraycopy(cur, 0, next, 0, cur.length);
+            next[cur.length] = c;
+            if (members.compareAndSet(cur, next)) return;
+        }
+    }
+
+    public void remove(NioAuctionServer.Connection c) {
+        while (true) {
+            NioAuctionServer.Connection[] cur = members.get();
+            int idx = -1;
+            for (int i = 0; i < cur.length; i++) {
+                if (cur[i] == c) {
+                    idx = i;
+                    break;
+                }
+            }
+            if (idx < 0) return;
+            NioAuctionServer.Connection[] next;
+            if (cur.length == 1) {
+                next = EMPTY;
+            } else {
+                next = new NioAuctionServer.Connection[cur.length - 1];
+                System.arraycopy(cur, 0, next, 0, idx);
+                System.arraycopy(cur, idx + 1, next, idx, cur.length - idx - 1);
+            }
+            if (members.compareAndSet(cur, next)) return;
+        }
+    }
+
+    public void clear() {
+        members.set(EMPTY);
+    }
+
+    public int size() {
+        return members.get().length;
+    }
+
+    /** Current members; the returned array is a snapshot and must not be modified. */
+    public NioAuctionServer.Connection[] snapshot() {
+        return members.get();
+    }
+
+    public void broadcast(String message) {
+        ByteBuffer text = NioAuctionServer.encodeLine(message);
+        ByteBuffer binary = null;
+        NioAuctionServer.Connection[] cur = members.get();
+        if (cur.length >= DIRECT_MIN_MEMBERS) text = NioAuctionServer.toDirect(text);
+        for (NioAuctionServer.Connection c : cur) {
+            if (binary == null && c.isBinary()) {
+                binary = BinaryCodec.wrapTextLine(text);
+            }
+            c.sendEncoded(text, binary, OutboundQueue.NOT_CONFLATABLE, null);
+        }
+    }
+
+    /** Hands one encoded frame to every member; returns the number of members it was queued for. */
+    public int broadcast(ByteBuffer frame) {
+        return broadcast(frame, null, OutboundQueue.NOT_CONFLATABLE);
+    }
+
+    /**
+     * One message in both encodings; each member gets the one its protocol uses.
+     * Frames with a conflationKey may be collapsed for lagging members (see OutboundQueue).
+     */
+    public int broadcast(ByteBuffer text, ByteBuffer binary, int conflationKey) {
+        return broadcast(text, binary, conflationKey, null);
+    }
+
+    /**
+     * As above; delivery (may be null) completes when the last member has
+     * written the frame. Returns the number of members it was queued for.
+     */
+    public int broadcast(ByteBuffer text, ByteBuffer binary, int conflationKey, Delivery delivery) {
+        int queued = 0;
+        NioAuctionServer.Connection[] cur = members.get();
+        if (cur.length >= DIRECT_MIN_MEMBERS) {
+            text = NioAuctionServer.toDirect(text);
+            if (binary != null) binary = NioAuctionServer.toDirect(binary);
+        }
+        for (NioAuctionServer.Connection c : cur) {
+            if (c.sendEncoded(text, binary, conflationKey, delivery)) queued++;
+        }
+        if (delivery != null) {
+            // drop the broadcaster's own reference; nobody to write to means nothing to measure
+            delivery.release(queued > 0);
+        }
+        return queued;
+    }
+
+    /** A frame only binary clients understand (BinaryCodec BIDDER/LOT); text members are skipped. */
+    public void broadcastBinaryOnly(ByteBuffer frame) {
+        for (NioAuctionServer.Connection c : members.get()) {
+            if (c.isBinary()) {
+                c.sendBinary(frame);
+            }
+        }
+    }
+}
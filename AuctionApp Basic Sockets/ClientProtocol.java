@@ -0,0 +1,89 @@
+/**
+ * ClientProtocol
+ * - The bidder's side of the text protocol (see AuctionServer), shared by
+ *   BidMakerWindow and LoadGenerator so both speak exactly the same lines
+ * - Builds the client -> server lines and classifies server -> client lines
+ */
+public final class ClientProtocol {
+
+    // server -> client message types
+    public static final int OTHER = 0;
+    public static final int START = 1;
+    public static final int BID = 2;
+    public static final int FINAL_REQUEST = 3;
+    public static final int FINAL_CONFIRMED = 4;
+    public static final int REJECTED = 5;
+    public static final int END = 6;
+    public static final int SNAPSHOT = 7;
+    public static final int RESUMED = 8;
+    public static final int PING = 9;
+    public static final int TOP = 10;
+
+    public static final String BID_PREFIX = "BID|";
+    public static final String FINAL_REQUEST_PREFIX = "FINAL_REQUEST|";
+    public static final String FINAL_CONFIRMED_PREFIX = "BIDMASTER|FINAL_CONFIRMED|";
+    public static final String REJECTED_PREFIX = "BIDMASTER|REJECTED|";
+    public static final String SNAPSHOT_PREFIX = "SNAPSHOT|";
+    public static final String RESUMED_PREFIX = "BIDMASTER|RESUMED|";
+    public static final String TOP_PREFIX = "BIDMASTER|TOP|";
+
+    // reason in BIDMASTER|REJECTED|<name>|<reason> when another connection holds the name
+    public static final String NAME_IN_USE = "name in use";
+
+    private ClientProtocol() {
+    }
+
+    public static String join(String name) {
+        return "JOIN|" + name;
+    }
+
+    /** Instead of join after a reconnect: seq is the last bid sequence the client knows of. */
+    public static String resume(String name, long seq) {
+        return "RESUME|" + name + "|" + seq;
+    }
+
+    /** Asks for the n highest bids of the default lot. */
+    public static String top(int n) {
+        return "TOP|" + n;
+    }
+
+    /** The answer to a PING heartbeat. */
+    public static String pong() {
+        return "PONG";
+    }
+
+    public static String bid(String name, String amount) {
+        return BID_PREFIX + name + "|" + amount;
+    }
+
+    public static String finalConfirm(String name) {
+        return "FINAL_CONFIRM|" + name;
+    }
+
+    /** Type of a line received from the server (END only for the default lot). */
+    public static int type(String msg) {
+        if (msg.startsWith("START|")) return START;
+        if (msg.startsWith(BID_PREFIX)) return BID;
+        if (msg.startsWith("FINAL_REQUEST")) return FINAL_REQUEST;
+        if (msg.startsWith(FINAL_CONFIRMED_PREFIX)) return FINAL_CONFIRMED;
+        if (msg.startsWith(REJECTED_PREFIX)) return REJECTED;
+        if (msg.equals("END")) return END;
+        if (msg.equals("PING")) return PING;
+        if (msg.startsWith(TOP_PREFIX)) return TOP;
+        if (msg.startsWith(SNAPSHOT_PREFIX)) return SNAPSHOT;
+        if (msg.startsWith(RESUMED_PREFIX)) return RESUMED;
+        return OTHER;
+    }
+
+    /** Field i (0 = the command) of a '|' separated line, or null. */
+    public static String field(String msg, int i) {
+        int start = 0;
+        for (int f = 0; f < i; f++) {
+            start = msg.indexOf('|', start);
+            if (start < 0) return null;
+            start++;
+        }
+        int end = msg.indexOf('|', start);
+        return end < 0 ? msg.substring(start) : msg.substring(start, end);
+    }
+}
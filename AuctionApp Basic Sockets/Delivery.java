@@ -0,0 +1,37 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivery
+ * - Follows one broadcast frame from the moment its BID was read until the
+ *   last subscriber's socket write of it has completed
+ * - Every OutboundQueue holding the frame holds one reference, the broadcaster
+ *   one more while it is still fanning out; the last release records the elapsed
+ *   time in the histogram
+ * - A frame that some client never wrote (replaced by a newer price, or the
+ *   client went away) is not recorded at all, so conflation does not make
+ *   delivery look faster than it is
+ */
+public final class Delivery {
+
+    private final long startNanos;
+    private final LatencyHistogram histogram;
+    private final AtomicInteger refs = new AtomicInteger(1);   // the broadcaster's own
+    private volatile boolean incomplete = false;
+
+    public Delivery(long startNanos, LatencyHistogram histogram) {
+        this.startNanos = startNanos;
+        this.histogram = histogram;
+    }
+
+    void retain() {
+        refs.incrementAndGet();
+    }
+
+    /** written is false when the frame was dropped instead of sent. */
+    void release(boolean written) {
+        if (!written) incomplete = true;
+        if (refs.decrementAndGet() == 0 && !incomplete) {
+            histogram.record(System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram
+ * - HDR-style log-linear histogram of nanosecond values: exact below 128 ns,
+ *   then 64 linear sub-buckets per power of two (about 1.5% precision) up to
+ *   Long.MAX_VALUE, in a fixed array of counters
+ * - record() is wait-free and allocation-free (a few atomic increments), so it
+ *   can sit on the bid path of any thread
+ * - Percentiles are read from a live, slightly racy view; good enough for
+ *   monitoring, not for accounting
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR = 128;     // values below this get their own bucket
+    private static final int SUB_BUCKETS = 64;  // per power of two above that
+    private static final int BUCKETS = LINEAR + (63 - 7) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        total.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public long getMeanNanos() {
+        long n = total.get();
+        return n == 0 ? 0L : sum.get() / n;
+    }
+
+    /** Value at the given percentile (0-100), rounded to its bucket's upper bound; 0 when empty. */
+    public long getPercentileNanos(double percentile) {
+        long n = total.get();
+        if (n == 0) return 0L;
+        long rank = (long) Math.ceil(n * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0L);
+        }
+        total.set(0L);
+        sum.set(0L);
+        max.set(0L);
+    }
+
+    /** "n=.. p50=..us p99=..us p99.9=..us max=..us" */
+    public String summary() {
+        return "n=" + getCount()
+                + " p50=" + micros(getPercentileNanos(50.0))
+                + " p99=" + micros(getPercentileNanos(99.0))
+                + " p99.9=" + micros(getPercentileNanos(99.9))
+                + " max=" + micros(getMaxNanos());
+    }
+
+    private static String micros(long nanos) {
+        return (nanos / 1000L) + "us";
+    }
+
+    static int index(long v) {
+        if (v < LINEAR) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);   // >= 7
+        int shift = exp - 6;
+        return LINEAR + (exp - 7) * SUB_BUCKETS + (int) ((v >>> shift) - SUB_BUCKETS);
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR) return index;
+        int k = index - LINEAR;
+        int exp = 7 + k / SUB_BUCKETS;
+        long sub = SUB_BUCKETS + k % SUB_BUCKETS;
+        int shift = exp - 6;
+        return ((sub + 1) << shift) - 1;
+    }
+}
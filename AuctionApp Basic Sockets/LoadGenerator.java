@@ -0,0 +1,408 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadGenerator
+ * - Headless stand-in for thousands of BidMakerWindows, speaking the same
+ *   ClientProtocol lines
+ * - A few NIO selector threads each own a share of the connections; every
+ *   connection JOINs under its own name, bids, and answers FINAL_REQUEST for
+ *   itself with FINAL_CONFIRM like a real bidder would
+ * - Bids are paced to a total rate with uniform, poisson or burst arrivals and
+ *   outbid the highest price seen so far by a random number of increments
+ * - Latency is measured from writing a BID to receiving its own broadcast back
+ *   (conflated or rejected bids are not counted); prints per-second throughput
+ *   and a final summary with percentiles
+ *
+ * Usage: java LoadGenerator [host=localhost] [port=5000] [clients=1000] [rate=1000]
+ *        [arrivals=uniform|poisson|burst] [burst=50] [increment=1.00] [lot=main]
+ *        [seconds=30] [threads=cores, max 4]
+ * A lot other than main must have been started on the server first.
+ */
+public class LoadGenerator {
+
+    private static final int BID_HISTORY = 8;   // outstanding bids remembered per connection
+    private static final byte[] INFO = TextCodec.utf8("BIDMASTER|INFO|");
+
+    // settings
+    private String host = "localhost";
+    private int port = AuctionServer.DEFAULT_PORT;
+    private int clients = 1000;
+    private double rate = 1000.0;
+    private String arrivals = "uniform";
+    private int burst = 50;
+    private long incrementCents = 100L;
+    private String lot = Lot.DEFAULT_ID;
+    private int seconds = 30;
+    private int threads = NioAuctionServer.defaultIoThreads();
+
+    // shared results
+    private final AtomicLong highSeen = new AtomicLong();
+    private final AtomicLong connected = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong bidsSent = new AtomicLong();
+    private final AtomicLong ownBidsSeen = new AtomicLong();
+    private final AtomicLong broadcastsSeen = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong finalsConfirmed = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+    private volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator gen = new LoadGenerator();
+        for (String arg : args) {
+            gen.configure(arg);
+        }
+        gen.run();
+    }
+
+    private void configure(String arg) {
+        int eq = arg.indexOf('=');
+        if (eq < 0) throw new IllegalArgumentException("expected key=value: " + arg);
+        String key = arg.substring(0, eq);
+        String value = arg.substring(eq + 1);
+        if (key.equals("host")) host = value;
+        else if (key.equals("port")) port = Integer.parseInt(value);
+        else if (key.equals("clients")) clients = Integer.parseInt(value);
+        else if (key.equals("rate")) rate = Double.parseDouble(value);
+        else if (key.equals("arrivals")) arrivals = value;
+        else if (key.equals("burst")) burst = Math.max(1, Integer.parseInt(value));
+        else if (key.equals("increment")) incrementCents = Money.parse(value);
+        else if (key.equals("lot")) lot = value;
+        else if (key.equals("seconds")) seconds = Integer.parseInt(value);
+        else if (key.equals("threads")) threads = Math.max(1, Integer.parseInt(value));
+        else throw new IllegalArgumentException("unknown setting: " + key);
+        if (incrementCents <= 0) throw new IllegalArgumentException("increment must be a positive amount");
+        if (!arrivals.equals("uniform") && !arrivals.equals("poisson") && !arrivals.equals("burst")) {
+            throw new IllegalArgumentException("arrivals must be uniform, poisson or burst");
+        }
+    }
+
+    private void run() throws Exception {
+        System.out.println("Load: " + clients + " clients -> " + host + ":" + port + " lot " + lot
+                + ", " + rate + " bids/s (" + arrivals + "), " + seconds + " s, " + threads + " thread(s)");
+        Worker[] workers = new Worker[Math.min(threads, Math.max(1, clients))];
+        for (int i = 0; i < workers.length; i++) {
+            int share = clients / workers.length + (i < clients % workers.length ? 1 : 0);
+            workers[i] = new Worker(i, share, rate / workers.length);
+        }
+        for (Worker w : workers) w.thread.start();
+
+        long start = System.nanoTime();
+        long lastSent = 0;
+        long lastSeen = 0;
+        long lastRejected = 0;
+        for (int s = 1; s <= seconds; s++) {
+            Thread.sleep(1000L);
+            long sent = bidsSent.get();
+            long seen = ownBidsSeen.get();
+            long rej = rejected.get();
+            System.out.println(String.format("%3ds connected=%d sent=%d/s echoed=%d/s rejected=%d/s latency %s",
+                    s, connected.get(), sent - lastSent, seen - lastSeen, rej - lastRejected, intervalLatency.summary()));
+            intervalLatency.reset();
+            lastSent = sent;
+            lastSeen = seen;
+            lastRejected = rej;
+        }
+        running = false;
+        for (Worker w : workers) {
+            w.selector.wakeup();
+            w.thread.join(2000L);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.println("--- summary ---");
+        System.out.println("connections: " + connected.get() + " ok, " + connectFailures.get() + " failed");
+        System.out.println(String.format("bids sent: %d (%.1f/s), echoed back: %d, rejected: %d, finals confirmed: %d",
+                bidsSent.get(), bidsSent.get() / elapsed, ownBidsSeen.get(), rejected.get(), finalsConfirmed.get()));
+        System.out.println(String.format("BID lines received: %d (%.1f/s)", broadcastsSeen.get(), broadcastsSeen.get() / elapsed));
+        System.out.println("bid -> own broadcast latency: " + latency.summary());
+    }
+
+    // One connection = one simulated bidder; touched only by its worker thread
+    private final class Conn {
+        final SocketChannel channel;
+        final String name;
+        final byte[] nameBytes;
+        final ByteBuffer in = ByteBuffer.allocate(8192);
+        final ByteBuffer out = ByteBuffer.allocate(4096);
+        SelectionKey key;
+        // the last few bids sent: amount and send time, matched against broadcasts
+        final long[] sentCents = new long[BID_HISTORY];
+        final long[] sentNanos = new long[BID_HISTORY];
+        int nextSlot = 0;
+
+        Conn(SocketChannel channel, String name) {
+            this.channel = channel;
+            this.name = name;
+            this.nameBytes = TextCodec.utf8(name);
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final Thread thread;
+        final Selector selector;
+        final List<Conn> conns = new ArrayList<Conn>();
+        final List<Conn> live = new ArrayList<Conn>();
+        final Random random;
+        final double intervalNanos;   // mean gap between bids of this worker
+        final int index;
+        final int count;
+
+        Worker(int index, int count, double rate) throws IOException {
+            this.index = index;
+            this.count = count;
+            this.selector = Selector.open();
+            this.random = new Random(index * 7919L + System.nanoTime());
+            this.intervalNanos = rate > 0 ? 1e9 / rate : Double.MAX_VALUE;
+            this.thread = new Thread(this, "load-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                connectAll();
+                long nextBid = System.nanoTime();
+                while (running) {
+                    long now = System.nanoTime();
+                    long waitMillis = Math.max(0L, (nextBid - now) / 1000000L);
+                    if (waitMillis > 0) {
+                        selector.select(waitMillis);
+                    } else {
+                        selector.selectNow();
+                    }
+                    handleKeys();
+                    now = System.nanoTime();
+                    // catch up on every bid that is due; keeps the rate even when a select overslept
+                    while (nextBid <= now && running) {
+                        if ("burst".equals(arrivals)) {
+                            for (int i = 0; i < burst; i++) sendBid();
+                            nextBid += (long) (intervalNanos * burst);
+                        } else {
+                            sendBid();
+                            nextBid += "poisson".equals(arrivals)
+                                    ? (long) (-Math.log(1.0 - random.nextDouble()) * intervalNanos)
+                                    : (long) intervalNanos;
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                System.out.println("load-" + index + " stopped: " + ex.getMessage());
+            } finally {
+                for (Conn c : conns) {
+                    NioAuctionServer.closeQuietly(c.channel);
+                }
+                NioAuctionServer.closeQuietly(selector);
+            }
+        }
+
+        private void connectAll() throws IOException {
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            for (int i = 0; i < count; i++) {
+                SocketChannel ch = SocketChannel.open();
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                Conn c = new Conn(ch, "load" + index + "_" + i);
+                conns.add(c);
+                try {
+                    if (ch.connect(address)) {
+                        onConnected(c, ch.register(selector, SelectionKey.OP_READ, c));
+                    } else {
+                        c.key = ch.register(selector, SelectionKey.OP_CONNECT, c);
+                    }
+                } catch (IOException ex) {
+                    connectFailures.incrementAndGet();
+                    NioAuctionServer.closeQuietly(ch);
+                }
+                // keep the server's accept backlog from overflowing during ramp-up
+                if ((i & 255) == 255) {
+                    selector.selectNow();
+                    handleKeys();
+                }
+            }
+        }
+
+        private void onConnected(Conn c, SelectionKey key) {
+            c.key = key;
+            key.interestOps(SelectionKey.OP_READ);
+            connected.incrementAndGet();
+            live.add(c);
+            // JOIN the lot, or JOIN the default lot and follow another one
+            send(c, ClientProtocol.join(c.name) + (lot.equals(Lot.DEFAULT_ID) ? "" : "|" + lot));
+        }
+
+        private void handleKeys() {
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                Conn c = (Conn) key.attachment();
+                try {
+                    if (!key.isValid()) continue;
+                    if (key.isConnectable()) {
+                        if (c.channel.finishConnect()) onConnected(c, key);
+                        continue;
+                    }
+                    if (key.isReadable()) read(c);
+                    if (key.isValid() && key.isWritable()) flush(c);
+                } catch (IOException ex) {
+                    drop(c);
+                }
+            }
+        }
+
+        private void drop(Conn c) {
+            if (c.key != null) c.key.cancel();
+            NioAuctionServer.closeQuietly(c.channel);
+            if (live.remove(c)) {
+                connected.decrementAndGet();
+            } else {
+                connectFailures.incrementAndGet();
+            }
+        }
+
+        private void sendBid() {
+            if (live.isEmpty()) return;
+            Conn c = live.get(random.nextInt(live.size()));
+            long base = highSeen.get();
+            long cents = base + incrementCents * (1 + random.nextInt(4));
+            byte[] amount = new byte[Money.length(cents)];
+            Money.put(amount, 0, cents);
+            String line = ClientProtocol.bid(c.name, new String(amount, NioAuctionServer.UTF8));
+            if (!lot.equals(Lot.DEFAULT_ID)) line += "|" + lot;
+            int slot = c.nextSlot++ % BID_HISTORY;
+            c.sentCents[slot] = cents;
+            c.sentNanos[slot] = System.nanoTime();
+            send(c, line);
+            bidsSent.incrementAndGet();
+        }
+
+        private void send(Conn c, String line) {
+            byte[] bytes = (line + "\n").getBytes(NioAuctionServer.UTF8);
+            if (c.out.remaining() < bytes.length) {
+                return; // this bidder's socket is backed up; skip rather than buffer forever
+            }
+            c.out.put(bytes);
+            try {
+                flush(c);
+            } catch (IOException ex) {
+                drop(c);
+            }
+        }
+
+        private void flush(Conn c) throws IOException {
+            c.out.flip();
+            c.channel.write(c.out);
+            boolean pending = c.out.hasRemaining();
+            c.out.compact();
+            if (c.key != null && c.key.isValid()) {
+                c.key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+
+        private void read(Conn c) throws IOException {
+            int n = c.channel.read(c.in);
+            if (n < 0) {
+                drop(c);
+                return;
+            }
+            byte[] b = c.in.array();
+            int end = c.in.position();
+            int start = 0;
+            for (int i = 0; i < end; i++) {
+                if (b[i] == '\n') {
+                    onLine(c, b, start, i - start);
+                    start = i + 1;
+                }
+            }
+            if (start == 0 && end == b.length) {
+                drop(c); // a line longer than the buffer: not the auction protocol
+                return;
+            }
+            System.arraycopy(b, start, b, 0, end - start);
+            c.in.position(end - start);
+        }
+
+        // BID lines are matched byte by byte; everything else is rare and may use Strings
+        private void onLine(Conn c, byte[] b, int off, int len) {
+            if (len > 4 && b[off] == 'B' && b[off + 1] == 'I' && b[off + 2] == 'D' && b[off + 3] == '|') {
+                broadcastsSeen.incrementAndGet();
+                int nameStart = off + 4;
+                int nameEnd = indexOf(b, nameStart, off + len, (byte) '|');
+                if (nameEnd < 0) return;
+                int amountEnd = indexOf(b, nameEnd + 1, off + len, (byte) '|');
+                if (amountEnd < 0) amountEnd = off + len;
+                long cents = Money.parse(b, nameEnd + 1, amountEnd - nameEnd - 1);
+                if (cents <= 0) return;
+                long high = highSeen.get();
+                while (cents > high && !highSeen.compareAndSet(high, cents)) {
+                    high = highSeen.get();
+                }
+                if (!sameBytes(c.nameBytes, b, nameStart, nameEnd - nameStart)) return;
+                for (int i = 0; i < BID_HISTORY; i++) {
+                    if (c.sentCents[i] == cents && c.sentNanos[i] != 0L) {
+                        long elapsed = System.nanoTime() - c.sentNanos[i];
+                        latency.record(elapsed);
+                        intervalLatency.record(elapsed);
+                        ownBidsSeen.incrementAndGet();
+                        c.sentNanos[i] = 0L;
+                        break;
+                    }
+                }
+                return;
+            }
+            if (startsWith(b, off, len, INFO)) {
+                return; // "x joined." chatter; with thousands of bidders this is most of the traffic
+            }
+            String msg = new String(b, off, len, NioAuctionServer.UTF8);
+            switch (ClientProtocol.type(msg)) {
+                case ClientProtocol.REJECTED:
+                    rejected.incrementAndGet();
+                    break;
+                case ClientProtocol.FINAL_REQUEST:
+                    if (c.name.equals(ClientProtocol.field(msg, 1))) {
+                        send(c, ClientProtocol.finalConfirm(c.name) + (lot.equals(Lot.DEFAULT_ID) ? "" : "|" + lot));
+                        finalsConfirmed.incrementAndGet();
+                    }
+                    break;
+                case ClientProtocol.PING:
+                    send(c, ClientProtocol.pong());
+                    break;
+                case ClientProtocol.START:
+                    // a new auction starts from zero
+                    highSeen.set(0L);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] b, int off, int len, byte[] prefix) {
+        return len >= prefix.length && sameBytes(prefix, b, off, prefix.length);
+    }
+
+    private static int indexOf(byte[] b, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static boolean sameBytes(byte[] a, byte[] b, int off, int len) {
+        if (a.length != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[off + i]) return false;
+        }
+        return true;
+    }
+}
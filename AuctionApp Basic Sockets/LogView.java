@@ -0,0 +1,166 @@
+import java.awt.*;
+import java.awt.event.*;
+import javax.swing.*;
+
+/**
+ * LogView
+ * - Scrollable auction log that keeps only the last N lines
+ * - Lines live in a fixed-capacity ring buffer behind a ListModel; the JList only
+ *   renders the rows in view and every row has the same height, so a full log
+ *   costs the same to paint as an empty one
+ * - append() may be called from any thread: lines are parked in a bounded
+ *   pending ring and moved into the model by one Swing timer tick per frame, so
+ *   a burst of thousands of lines is a single EDT update
+ * - Follows the tail while the view is scrolled to the bottom, stays put otherwise
+ */
+public class LogView extends JScrollPane {
+
+    public static final int DEFAULT_CAPACITY = 5000;
+    private static final int FRAME_MILLIS = 16;
+
+    /** Ring-buffer ListModel; only touched on the EDT. */
+    static final class RingModel extends AbstractListModel<String> {
+        private final String[] lines;
+        private int head = 0;   // index of the oldest line
+        private int size = 0;
+
+        RingModel(int capacity) {
+            lines = new String[capacity];
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public String getElementAt(int index) {
+            return lines[(head + index) % lines.length];
+        }
+
+        // adds count lines from src (a ring of the same capacity), dropping the oldest
+        void addAll(String[] src, int srcHead, int count) {
+            int overflow = size + count - lines.length;
+            if (overflow > 0) {
+                for (int i = 0; i < overflow; i++) {
+                    lines[(head + i) % lines.length] = null;
+                }
+                head = (head + overflow) % lines.length;
+                size -= overflow;
+                fireIntervalRemoved(this, 0, overflow - 1);
+            }
+            int first = size;
+            for (int i = 0; i < count; i++) {
+                lines[(head + size) % lines.length] = src[(srcHead + i) % src.length];
+                size++;
+            }
+            fireIntervalAdded(this, first, size - 1);
+        }
+
+        void clear() {
+            if (size == 0) return;
+            int removed = size;
+            java.util.Arrays.fill(lines, null);
+            head = 0;
+            size = 0;
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+    }
+
+    private final RingModel model;
+    private final JList<String> list;
+    private final Timer flushTimer;
+
+    // lines appended since the last frame; guarded by pendingLock. The EDT swaps
+    // in the spare ring and copies the full one into the model outside the lock.
+    private final Object pendingLock = new Object();
+    private String[] pending;
+    private String[] spare;
+    private int pendingHead = 0;
+    private int pendingSize = 0;
+    private long dropped = 0L;
+
+    public LogView(String title, Font font) {
+        this(title, font, DEFAULT_CAPACITY);
+    }
+
+    public LogView(String title, Font font, int capacity) {
+        model = new RingModel(Math.max(1, capacity));
+        pending = new String[Math.max(1, capacity)];
+        spare = new String[pending.length];
+        list = new JList<String>(model);
+        list.setFont(font);
+        // fixed row height: the list never measures rows it does not paint
+        list.setPrototypeCellValue("Bid #000000 received: XXXXXXXXXXXXXXXX -> $0000000.00 [lot XXXXXXXX]");
+        setViewportView(list);
+        setBorder(BorderFactory.createTitledBorder(title));
+
+        flushTimer = new Timer(FRAME_MILLIS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
+        flushTimer.setRepeats(false);
+        flushTimer.setCoalesce(true);
+    }
+
+    /** Thread-safe; the line shows up with the next frame. */
+    public void append(String line) {
+        boolean schedule;
+        synchronized (pendingLock) {
+            schedule = pendingSize == 0;
+            if (pendingSize == pending.length) {
+                // more lines than the log can hold arrived within one frame
+                pendingHead = (pendingHead + 1) % pending.length;
+                pendingSize--;
+                dropped++;
+            }
+            pending[(pendingHead + pendingSize) % pending.length] = line;
+            pendingSize++;
+        }
+        if (schedule) {
+            flushTimer.restart();
+        }
+    }
+
+    /** Lines that never reached the view because a single frame overflowed the log. */
+    public long getDroppedLines() {
+        synchronized (pendingLock) {
+            return dropped;
+        }
+    }
+
+    /** Empties the log; EDT only. */
+    public void clear() {
+        synchronized (pendingLock) {
+            pendingSize = 0;
+        }
+        model.clear();
+    }
+
+    // EDT: one model update for everything appended since the last frame
+    private void flush() {
+        boolean follow = isAtBottom();
+        String[] batch;
+        int head;
+        int count;
+        synchronized (pendingLock) {
+            if (pendingSize == 0) return;
+            batch = pending;
+            head = pendingHead;
+            count = pendingSize;
+            pending = spare;
+            spare = batch;
+            pendingHead = 0;
+            pendingSize = 0;
+        }
+        model.addAll(batch, head, count);
+        java.util.Arrays.fill(batch, null);
+        if (follow) {
+            list.ensureIndexIsVisible(model.getSize() - 1);
+        }
+    }
+
+    private boolean isAtBottom() {
+        JScrollBar bar = getVerticalScrollBar();
+        return bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - list.getFixedCellHeight();
+    }
+}
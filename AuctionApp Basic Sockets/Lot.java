@@ -0,0 +1,92 @@
+import java.util.BitSet;
+
+/**
+ * Lot
+ * - One auction hosted by the server, keyed by its id
+ * - Has its own bid book and its own subscriber set; broadcasts for a lot only
+ *   reach the clients subscribed to it
+ * - Pinned to one partition (see LotRegistry); item/open/waitingForFinal are only
+ *   touched by that partition's sequencer thread
+ *
+ * - Keeps every accepted bid of the current auction in a BidHistory
+ * - Remembers its last RECENT_BIDS accepted bids, so a reconnecting client can
+ *   be sent just the ones it missed (see AuctionServer RESUME)
+ *
+ * The lot with id DEFAULT_ID speaks the original protocol unchanged; every other
+ * lot appends "|<id>" to the messages it sends, so one client can follow several.
+ */
+public class Lot {
+
+    public static final String DEFAULT_ID = "main";
+    public static final int RECENT_BIDS = 32;
+    // longest item text (UTF-8) startAuction takes; it goes into every START line and the journal
+    public static final int MAX_ITEM_BYTES = 1024;
+
+    public final String id;
+    public final int code;        // compact id used by the binary protocol
+    public final int partition;
+    public final BidBook bidBook = new BidBook();
+    public final BroadcastGroup subscribers = new BroadcastGroup();
+
+    // owned by the partition thread
+    String item = null;
+    boolean open = false;
+    boolean waitingForFinal = false;
+    final BitSet announcedBidders = new BitSet();  // bidder ids whose name binary clients already got
+    final BidCoalescer coalescer = new BidCoalescer();
+    final BidHistory history = new BidHistory();
+    final BitSet defaulted = new BitSet();   // bidder ids that let a final request time out, this auction
+    // timed close, see AuctionServer.startAuction(lot, item, duration)
+    long endsAt = 0L;            // wall-clock close time; 0 = closed by the operator
+    boolean timed = false;       // ends by itself once the final bid is confirmed or times out
+    boolean biddingClosed = false;
+    long timerGeneration = 0L;   // bumped by START/END, so close timers of an earlier auction are ignored
+    long finalGeneration = 0L;   // bumped per FINAL_REQUEST, the same for its timeout
+    long startSequence = 0L;   // bid sequence when the current auction started; later bids belong to it
+    private final BidBook.Bid[] recentBids = new BidBook.Bid[RECENT_BIDS];
+
+    private final String suffix;
+    final byte[] idBytes;
+    final byte[] suffixBytes;   // "|<id>" or empty, appended to encoded lines
+
+    Lot(String id, int code, int partition) {
+        this.id = id;
+        this.code = code;
+        this.partition = partition;
+        this.suffix = DEFAULT_ID.equals(id) ? "" : "|" + id;
+        this.idBytes = TextCodec.utf8(id);
+        this.suffixBytes = TextCodec.utf8(suffix);
+    }
+
+    // partition thread
+    void rememberBid(BidBook.Bid bid) {
+        recentBids[(int) (bid.sequence % RECENT_BIDS)] = bid;
+    }
+
+    /** The accepted bid with this sequence number if it is still remembered, else null. */
+    BidBook.Bid recentBid(long sequence) {
+        BidBook.Bid b = recentBids[(int) (sequence % RECENT_BIDS)];
+        return b != null && b.sequence == sequence ? b : null;
+    }
+
+    boolean idEquals(byte[] b, int off, int len) {
+        if (idBytes.length != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (idBytes[i] != b[off + i]) return false;
+        }
+        return true;
+    }
+
+    public boolean isDefault() {
+        return suffix.length() == 0;
+    }
+
+    /** Appends the lot id to a message for non-default lots. */
+    public String tag(String message) {
+        return suffix.length() == 0 ? message : message + suffix;
+    }
+
+    public void broadcast(String message) {
+        subscribers.broadcast(tag(message));
+    }
+}
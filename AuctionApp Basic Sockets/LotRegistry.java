@@ -0,0 +1,155 @@
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * LotRegistry
+ * - All lots hosted by one server, keyed by auction id
+ * - Lots are spread over a fixed number of partitions (one per core by default);
+ *   each partition has its own AuctionSequencer thread, so lots on different
+ *   partitions are processed fully in parallel while every single lot still has
+ *   exactly one writer
+ * - Lookups are lock-free; a lot is created by the operator (START) or by
+ *   journal replay, never by a client, so clients cannot grow the registry
+ * - Lookups straight from received bytes go through an open-addressing table
+ *   hashed on the id bytes: one hash and one compare, however many lots
+ */
+public class LotRegistry {
+
+    private final ConcurrentMap<String, Lot> lots = new ConcurrentHashMap<String, Lot>();
+    private final Object codeLock = new Object();
+    private volatile Lot[] byCode = new Lot[16];   // copy-on-write, indexed by Lot.code
+    private volatile Lot[] byHash = new Lot[32];   // copy-on-write, open addressing on idBytes, at most half full
+    private int nextCode = 0;                       // guarded by codeLock
+    private final AuctionSequencer[] partitions;
+
+    public LotRegistry(int partitionCount, int ringCapacity, AuctionSequencer.Handler handler) {
+        partitions = new AuctionSequencer[Math.max(1, partitionCount)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new AuctionSequencer(ringCapacity, handler, "auction-partition-" + i);
+        }
+    }
+
+    public static int defaultPartitions() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    public void start() {
+        for (AuctionSequencer p : partitions) {
+            p.start();
+        }
+    }
+
+    /**
+     * Stops every partition and waits (up to millis in all) until each has
+     * handled the commands already published. Returns false if one did not
+     * finish in time.
+     */
+    public boolean stop(long millis) {
+        for (AuctionSequencer p : partitions) {
+            p.stop();
+        }
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            for (AuctionSequencer p : partitions) {
+                if (!p.awaitStop(Math.max(1L, deadline - System.currentTimeMillis()))) return false;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    public Lot get(String id) {
+        return lots.get(id);
+    }
+
+    public Lot getOrCreate(String id) {
+        Lot lot = lots.get(id);
+        if (lot != null) return lot;
+        // creating a lot is rare; a lock keeps codes dense and never wasted on a lost race
+        synchronized (codeLock) {
+            lot = lots.get(id);
+            if (lot != null) return lot;
+            Lot created = new Lot(id, nextCode++, (id.hashCode() & Integer.MAX_VALUE) % partitions.length);
+            Lot[] table = byCode;
+            if (created.code >= table.length) {
+                Lot[] grown = new Lot[table.length * 2];
+                System.arraycopy(table, 0, grown, 0, table.length);
+                table = grown;
+            } else {
+                table = table.clone();
+            }
+            table[created.code] = created;
+            byCode = table;
+            byHash = rehash(table, created.code + 1);
+            lots.put(id, created);
+            return created;
+        }
+    }
+
+    /** Lot whose id is the UTF-8 bytes b[off, off+len), or null. Lock-free and allocation-free. */
+    public Lot get(byte[] b, int off, int len) {
+        Lot[] table = byHash;
+        int mask = table.length - 1;
+        for (int i = hash(b, off, len) & mask; ; i = (i + 1) & mask) {
+            Lot lot = table[i];
+            if (lot == null) return null;
+            if (lot.idEquals(b, off, len)) return lot;
+        }
+    }
+
+    /** Lot by its binary protocol code, or null. Lock-free and allocation-free. */
+    public Lot byCode(int code) {
+        Lot[] table = byCode;
+        return code >= 0 && code < table.length ? table[code] : null;
+    }
+
+    // caller holds codeLock; a fresh table for lots [0, count) of codes
+    private static Lot[] rehash(Lot[] codes, int count) {
+        int capacity = 32;
+        while (capacity < count * 2) capacity *= 2;
+        Lot[] table = new Lot[capacity];
+        int mask = capacity - 1;
+        for (int c = 0; c < count; c++) {
+            Lot lot = codes[c];
+            int i = hash(lot.idBytes, 0, lot.idBytes.length) & mask;
+            while (table[i] != null) i = (i + 1) & mask;
+            table[i] = lot;
+        }
+        return table;
+    }
+
+    private static int hash(byte[] b, int off, int len) {
+        int h = 0x811C9DC5;
+        for (int i = off; i < off + len; i++) {
+            h = (h ^ b[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    public Collection<Lot> all() {
+        return lots.values();
+    }
+
+    /** Sends a command to the partition that owns the lot. */
+    public void publish(Lot lot, int type, NioAuctionServer.Connection conn, String text) {
+        partitions[lot.partition].publish(type, lot, conn, text, 0L, 0, 0L);
+    }
+
+    /** A command carrying a number (START duration, timer generation, query size). */
+    public void publish(Lot lot, int type, NioAuctionServer.Connection conn, String text, long value) {
+        partitions[lot.partition].publish(type, lot, conn, text, value, 0, 0L);
+    }
+
+    /** A reconnecting client that has seen the lot up to bid sequence seq. */
+    public void publishResume(Lot lot, NioAuctionServer.Connection conn, String name, int bidder, long seq) {
+        partitions[lot.partition].publish(AuctionSequencer.Command.RESUME, lot, conn, name, seq, bidder, 0L);
+    }
+
+    /** readNanos is the System.nanoTime() at which the bid came off the socket. */
+    public void publishBid(Lot lot, NioAuctionServer.Connection conn, String name, int bidder, long cents, long readNanos) {
+        partitions[lot.partition].publish(AuctionSequencer.Command.BID, lot, conn, name, cents, bidder, readNanos);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Money
+ * - Amounts are plain longs holding whole cents, everywhere past the socket:
+ *   parsed once at the edge (TextCodec, BidMakerWindow, LoadGenerator), then
+ *   stored, compared, journaled and broadcast as numbers
+ * - parse() reads "12", "12.5" or "12.50" straight from the received bytes
+ *   without allocating; format()/put() write "<whole>.<cc>"
+ * - Valid amounts are 0.01 .. MAX_CENTS; anything else parses to -1, so
+ *   adding an increment to a valid amount can never overflow
+ *
+ * Static helpers on a primitive rather than a value class, so the hot path
+ * never allocates an amount object.
+ */
+public final class Money {
+
+    /** Largest accepted amount: 10,000,000,000,000.00. */
+    public static final long MAX_CENTS = 1000000000000000L;
+
+    private Money() {
+    }
+
+    /** True for 0.01 .. MAX_CENTS. */
+    public static boolean isValid(long cents) {
+        return cents > 0 && cents <= MAX_CENTS;
+    }
+
+    /**
+     * Parses an amount ("12", "12.5", "12.50") into cents without allocating.
+     * Returns -1 for anything that is not a valid amount with at most two decimals.
+     */
+    public static long parse(byte[] b, int off, int len) {
+        if (len <= 0 || len > 20) return -1L;
+        int end = off + len;
+        int i = off;
+        long whole = 0L;
+        int digits = 0;
+        while (i < end && b[i] != '.') {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) return -1L;
+            whole = whole * 10 + d;
+            if (whole > MAX_CENTS / 100) return -1L;
+            digits++;
+            i++;
+        }
+        long cents = 0L;
+        if (i < end) {
+            i++; // '.'
+            int decimals = end - i;
+            if (decimals == 0 || decimals > 2) return -1L;
+            for (int k = 0; k < 2; k++) {
+                cents *= 10;
+                if (i < end) {
+                    int d = b[i++] - '0';
+                    if (d < 0 || d > 9) return -1L;
+                    cents += d;
+                }
+            }
+        }
+        if (digits == 0 && cents == 0) return -1L;
+        long total = whole * 100 + cents;
+        return isValid(total) ? total : -1L;
+    }
+
+    /** As above for text typed by a person (surrounding blanks and a leading '$' are ignored). */
+    public static long parse(CharSequence s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && s.charAt(start) <= ' ') start++;
+        while (end > start && s.charAt(end - 1) <= ' ') end--;
+        if (start < end && s.charAt(start) == '$') start++;
+        int len = end - start;
+        if (len <= 0 || len > 20) return -1L;
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(start + i);
+            b[i] = c < 128 ? (byte) c : (byte) '?';
+        }
+        return parse(b, 0, len);
+    }
+
+    /** Formats cents as "12.50". */
+    public static String format(long cents) {
+        long c = cents % 100;
+        return (cents / 100) + (c < 10 ? ".0" : ".") + c;
+    }
+
+    // digits needed for "<whole>.<cc>"
+    static int length(long cents) {
+        long whole = cents / 100;
+        int n = 1;
+        while (whole >= 10) {
+            whole /= 10;
+            n++;
+        }
+        return n + 3;
+    }
+
+    // writes cents as "<whole>.<cc>" at p, returns the next position
+    static int put(byte[] out, int p, long cents) {
+        int len = length(cents);
+        int i = p + len - 1;
+        long c = cents % 100;
+        out[i--] = (byte) ('0' + c % 10);
+        out[i--] = (byte) ('0' + c / 10);
+        out[i--] = '.';
+        long whole = cents / 100;
+        do {
+            out[i--] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole > 0);
+        return p + len;
+    }
+}
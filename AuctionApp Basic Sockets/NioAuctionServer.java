@@ -0,0 +1,689 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NioAuctionServer
+ * - Non-blocking server core built on ServerSocketChannel + Selector
+ * - One accept thread plus a small fixed pool of I/O reactors; every connection
+ *   is pinned to one reactor for its whole lifetime, so thread count does not
+ *   grow with the number of bidders
+ * - Inbound bytes are split into lines, or into BinaryCodec frames once a
+ *   connection has switched to binary, and handed to the Handler as bytes on
+ *   the reactor thread; no String is built
+ * - Outbound frames go into a bounded per-client OutboundQueue drained by the
+ *   reactor when the socket is writable, so a slow client only ever delays itself
+ * - Everything pending for a client leaves in one gathering write (up to
+ *   MAX_GATHER frames per call), so a burst of small messages costs one
+ *   syscall and fills whole TCP segments instead of one packet per line
+ * - TCP_NODELAY and the socket buffer sizes come from a SocketConfig
+ * - Heartbeats (setHeartbeat): a connection that has sent nothing for the
+ *   interval gets a ping line, one silent for the timeout is closed. Each
+ *   reactor drives this from one TimerWheel with a single timer per
+ *   connection; a read only stores a timestamp
+ *
+ * The server knows nothing about the auction protocol itself (JOIN|, BID|, ...),
+ * that is left to the Handler.
+ */
+public class NioAuctionServer {
+
+    public interface Handler {
+        void onConnect(Connection c);
+        /** One line without its newline, in line[0, length); valid only during the call. */
+        void onLine(Connection c, byte[] line, int length);
+        /** A binary frame; position is at the opcode, limit at the frame end. Valid only during the call. */
+        void onFrame(Connection c, ByteBuffer frame);
+        void onDisconnect(Connection c);
+        /** A callback above threw; the reactor closes c right after and keeps serving the others. */
+        void onError(Connection c, RuntimeException ex);
+    }
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Longest line we accept from a client; anything longer is treated as garbage
+    private static final int MAX_LINE = 8192;
+
+    // Frames handed to one gathering write
+    static final int MAX_GATHER = 64;
+
+    // Direct memory for broadcast frames (toDirect): 64 KB slabs, one per broadcasting thread
+    private static final int DIRECT_SLAB_BYTES = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> DIRECT_SLAB = new ThreadLocal<ByteBuffer>();
+
+    // Heartbeat timer wheel: 100 ms ticks, 512 slots (51.2 s per turn)
+    private static final long WHEEL_TICK_MILLIS = 100L;
+    private static final int WHEEL_SLOTS = 512;
+
+    /** TCP settings applied to every accepted socket. */
+    public static final class SocketConfig {
+        public final boolean tcpNoDelay;
+        public final int sendBufferSize;     // bytes, 0 = OS default
+        public final int receiveBufferSize;  // bytes, 0 = OS default
+
+        public SocketConfig(boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize) {
+            this.tcpNoDelay = tcpNoDelay;
+            this.sendBufferSize = Math.max(0, sendBufferSize);
+            this.receiveBufferSize = Math.max(0, receiveBufferSize);
+        }
+
+        public static SocketConfig defaults() {
+            // writes are already batched per client, Nagle would only add delay
+            return new SocketConfig(true, 0, 0);
+        }
+
+        /** -Dauction.tcpNoDelay (default true), -Dauction.sendBuffer and -Dauction.receiveBuffer (bytes). */
+        public static SocketConfig fromSystemProperties() {
+            return new SocketConfig(
+                    !"false".equalsIgnoreCase(System.getProperty("auction.tcpNoDelay", "true")),
+                    Integer.getInteger("auction.sendBuffer", 0),
+                    Integer.getInteger("auction.receiveBuffer", 0));
+        }
+    }
+
+    private final int port;
+    private final Handler handler;
+    private final Reactor[] reactors;
+    private final AtomicInteger nextReactor = new AtomicInteger();
+    private volatile OutboundQueue.Config outboundConfig = OutboundQueue.Config.defaults();
+    private volatile SocketConfig socketConfig = SocketConfig.defaults();
+    private long heartbeatMillis = 0L;    // 0 = no heartbeats
+    private long idleTimeoutMillis = 0L;
+    private ByteBuffer pingFrame;
+    private final AtomicLong idleEvictions = new AtomicLong();
+
+    private ServerSocketChannel serverChannel;
+    private Thread acceptThread;
+    private volatile boolean running = false;
+
+    public NioAuctionServer(int port, int ioThreads, Handler handler) {
+        this.port = port;
+        this.handler = handler;
+        this.reactors = new Reactor[Math.max(1, ioThreads)];
+    }
+
+    /** Default reactor count: one per core, capped at 4 (the work per byte is tiny). */
+    public static int defaultIoThreads() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /** Applies to connections accepted after the call. */
+    public void setOutboundConfig(OutboundQueue.Config config) {
+        this.outboundConfig = config;
+    }
+
+    /** Applies to connections accepted after the call (the receive buffer only after a restart). */
+    public void setSocketConfig(SocketConfig config) {
+        this.socketConfig = config;
+    }
+
+    /**
+     * Sends pingLine to a client that has sent nothing for intervalMillis and
+     * closes it after timeoutMillis of silence; any inbound bytes count, the
+     * client only has to answer pings when it is otherwise quiet. An interval
+     * of 0 turns heartbeats off. Takes effect on the next start().
+     */
+    public synchronized void setHeartbeat(long intervalMillis, long timeoutMillis, String pingLine) {
+        this.heartbeatMillis = Math.max(0L, intervalMillis);
+        this.idleTimeoutMillis = Math.max(intervalMillis, timeoutMillis);
+        this.pingFrame = encodeLine(pingLine);
+    }
+
+    /** Connections closed because they stayed silent past the idle timeout. */
+    public long getIdleEvictions() {
+        return idleEvictions.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) return;
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            // set before bind so accepted sockets inherit it with a matching window scale
+            if (socketConfig.receiveBufferSize > 0) {
+                serverChannel.socket().setReceiveBufferSize(socketConfig.receiveBufferSize);
+            }
+            serverChannel.socket().bind(new InetSocketAddress(port), 1024);
+            for (int i = 0; i < reactors.length; i++) {
+                reactors[i] = new Reactor(i);
+            }
+        } catch (IOException ex) {
+            closeQuietly(serverChannel);
+            serverChannel = null;
+            throw ex;
+        }
+        running = true;
+        for (Reactor r : reactors) {
+            r.thread.start();
+        }
+
+        // blocks in accept() all day: virtual when -Dauction.virtualThreads=true
+        acceptThread = Threads.newBlockingThread(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        }, "auction-accept");
+        acceptThread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        closeQuietly(serverChannel);
+        serverChannel = null;
+        for (Reactor r : reactors) {
+            if (r != null) r.shutdown();
+        }
+        if (acceptThread != null) {
+            acceptThread.interrupt();
+            acceptThread = null;
+        }
+    }
+
+    private void acceptLoop() {
+        ServerSocketChannel ch = serverChannel;
+        while (running && ch != null && ch.isOpen()) {
+            try {
+                // blocking accept on a dedicated thread; the channel is switched to
+                // non-blocking before being handed to a reactor
+                SocketChannel sc = ch.accept();
+                if (sc == null) continue;
+                sc.configureBlocking(false);
+                SocketConfig cfg = socketConfig;
+                sc.socket().setTcpNoDelay(cfg.tcpNoDelay);
+                if (cfg.sendBufferSize > 0) sc.socket().setSendBufferSize(cfg.sendBufferSize);
+                if (cfg.receiveBufferSize > 0) sc.socket().setReceiveBufferSize(cfg.receiveBufferSize);
+                Reactor r = reactors[(nextReactor.getAndIncrement() & Integer.MAX_VALUE) % reactors.length];
+                r.register(new Connection(sc, r));
+            } catch (ClosedChannelException ex) {
+                return; // server channel closed during shutdown
+            } catch (IOException ex) {
+                // a single failed accept (e.g. peer reset) must not stop the server
+            }
+        }
+    }
+
+    /**
+     * Encodes one protocol line (plus newline) into a read-only buffer that can be
+     * passed to any number of Connection.sendEncoded calls.
+     */
+    public static ByteBuffer encodeLine(String line) {
+        byte[] bytes = (line + "\n").getBytes(UTF8);
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * A connection with no socket and no reactor: frames offered to it just
+     * queue up until drainQueued() is called. For benchmarks and tools that
+     * need many in-memory subscribers; the server's Handler still sees close().
+     */
+    Connection newDetachedConnection() {
+        return new Connection(null, null);
+    }
+
+    /**
+     * A read-only direct copy of b. Worth it for a frame written to many
+     * sockets: heap buffers are copied to direct memory on every write.
+     * Frames are carved one after another out of a direct slab owned by the
+     * calling thread, so a bid storm costs one allocateDirect per slab rather
+     * than per frame; a full slab is never reused, only dropped, and its memory
+     * is freed once the last frame cut from it has been written.
+     */
+    public static ByteBuffer toDirect(ByteBuffer b) {
+        if (b.isDirect()) return b;
+        int len = b.remaining();
+        if (len > DIRECT_SLAB_BYTES / 16) {
+            // a large frame would use up a slab in a few copies
+            ByteBuffer d = ByteBuffer.allocateDirect(len);
+            d.put(b.duplicate());
+            d.flip();
+            return d.asReadOnlyBuffer();
+        }
+        ByteBuffer slab = DIRECT_SLAB.get();
+        if (slab == null || slab.remaining() < len) {
+            slab = ByteBuffer.allocateDirect(DIRECT_SLAB_BYTES);
+            DIRECT_SLAB.set(slab);
+        }
+        int start = slab.position();
+        slab.put(b.duplicate());
+        ByteBuffer d = slab.duplicate();
+        d.position(start);
+        d.limit(start + len);
+        return d.slice().asReadOnlyBuffer();
+    }
+
+    /** Both buffers back to back in one read-only buffer, so they leave in a single write. */
+    public static ByteBuffer concat(ByteBuffer first, ByteBuffer second) {
+        ByteBuffer b = ByteBuffer.allocate(first.remaining() + second.remaining());
+        b.put(first.duplicate()).put(second.duplicate());
+        b.flip();
+        return b.asReadOnlyBuffer();
+    }
+
+    static void closeQuietly(Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ex) {
+            // ignore
+        }
+    }
+
+    // One selector + one thread; owns all I/O for the connections registered on it
+    private final class Reactor implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<Connection> pendingRegister = new ConcurrentLinkedQueue<Connection>();
+        final Queue<Connection> pendingWrite = new ConcurrentLinkedQueue<Connection>();
+        final AtomicBoolean wakeupPending = new AtomicBoolean();
+        // shared by every connection on this reactor, only touched on the reactor thread
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+        final ByteBuffer[] writeBatch = new ByteBuffer[MAX_GATHER];
+        final TimerWheel wheel;   // null without heartbeats
+        long now = System.currentTimeMillis();   // once per loop, for read timestamps and the wheel
+
+        Reactor(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "auction-io-" + index);
+            thread.setDaemon(true);
+            wheel = heartbeatMillis > 0 ? new TimerWheel(WHEEL_SLOTS, WHEEL_TICK_MILLIS, now) : null;
+        }
+
+        void register(Connection c) {
+            pendingRegister.add(c);
+            wakeup();
+        }
+
+        void requestWrite(Connection c) {
+            pendingWrite.add(c);
+            wakeup();
+        }
+
+        void wakeup() {
+            // coalesce wakeups: many senders in one burst cost a single selector wakeup
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void shutdown() {
+            selector.wakeup();
+        }
+
+        public void run() {
+            try {
+                while (running) {
+                    if (wheel != null) {
+                        selector.select(wheel.getTickMillis());
+                    } else {
+                        selector.select();
+                    }
+                    now = System.currentTimeMillis();
+                    wakeupPending.set(false);
+                    processRegistrations();
+                    processWriteRequests();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection c = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            c.close();
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                c.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                c.onWritable();
+                            }
+                        } catch (IOException ex) {
+                            c.close();
+                        } catch (CancelledKeyException ex) {
+                            c.close();
+                        } catch (RuntimeException ex) {
+                            fail(c, ex);
+                        }
+                    }
+                    if (wheel != null) wheel.advance(now);
+                }
+            } catch (IOException ex) {
+                // selector failure; fall through and close everything
+            } finally {
+                // best-effort flush so goodbye messages (END) queued just before stop() go out
+                processWriteRequests();
+                for (SelectionKey key : selector.keys()) {
+                    Object att = key.attachment();
+                    if (att instanceof Connection) {
+                        Connection c = (Connection) att;
+                        c.flush();
+                        c.close();
+                    }
+                }
+                Connection pending;
+                while ((pending = pendingRegister.poll()) != null) {
+                    pending.close();
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        private void processRegistrations() {
+            Connection c;
+            while ((c = pendingRegister.poll()) != null) {
+                try {
+                    c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+                } catch (IOException ex) {
+                    c.close();
+                    continue;
+                }
+                c.lastReadMillis = now;
+                if (wheel != null) wheel.schedule(c.heartbeat, heartbeatMillis);
+                try {
+                    handler.onConnect(c);
+                } catch (RuntimeException ex) {
+                    fail(c, ex);
+                    continue;
+                }
+                c.flush();
+            }
+        }
+
+        // A handler bug costs the one connection it happened on, not the reactor
+        private void fail(Connection c, RuntimeException ex) {
+            try {
+                handler.onError(c, ex);
+            } catch (RuntimeException ignored) {
+                // nothing more to report it to
+            }
+            try {
+                c.close();
+            } catch (RuntimeException ignored) {
+                // onDisconnect failed as well; the channel is closed before it runs
+            }
+        }
+
+        private void processWriteRequests() {
+            Connection c;
+            while ((c = pendingWrite.poll()) != null) {
+                c.writeRequested.set(false);
+                c.flush();
+            }
+        }
+    }
+
+    /**
+     * One client socket. send() and close() may be called from any thread; reads
+     * and writes on the channel only happen on the owning reactor thread.
+     */
+    public final class Connection {
+        final SocketChannel channel;
+        final Reactor reactor;
+        SelectionKey key;
+
+        private final SocketAddress remoteAddress;
+        private final ByteBuffer lineBuffer = ByteBuffer.allocate(MAX_LINE);
+        private final OutboundQueue outbound;
+        final AtomicBoolean writeRequested = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private boolean binaryIn = false;   // reactor thread only
+        private volatile long lastReadMillis;   // written by the reactor thread only
+
+        // Fires on the reactor thread; a closed connection just is not rescheduled
+        private final TimerWheel.Timer heartbeat = new TimerWheel.Timer() {
+            void run(long now) {
+                if (closed.get()) return;
+                long idle = now - lastReadMillis;
+                if (idle >= idleTimeoutMillis) {
+                    idleEvictions.incrementAndGet();
+                    close();
+                    return;
+                }
+                if (idle >= heartbeatMillis) {
+                    sendEncoded(pingFrame);
+                    reactor.wheel.schedule(this, Math.min(heartbeatMillis, idleTimeoutMillis - idle));
+                } else {
+                    reactor.wheel.schedule(this, heartbeatMillis - idle);
+                }
+            }
+        };
+        private volatile Object attachment;
+
+        Connection(SocketChannel channel, Reactor reactor) {
+            this.channel = channel;
+            this.reactor = reactor;
+            this.remoteAddress = channel != null ? channel.socket().getRemoteSocketAddress() : null;
+            this.outbound = new OutboundQueue(outboundConfig);
+        }
+
+        /** When bytes last arrived from the client (System.currentTimeMillis()). */
+        public long getLastReadMillis() {
+            return lastReadMillis;
+        }
+
+        public SocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+        /** Frames waiting to be written to this client. */
+        public int getQueuedFrames() {
+            return outbound.size();
+        }
+
+        public boolean isOpen() {
+            return !closed.get();
+        }
+
+        public boolean isBinary() {
+            return outbound.isBinary();
+        }
+
+        /**
+         * Sends ackLine as the last text line and switches both directions to
+         * BinaryCodec frames. Must be called from Handler.onLine (reactor thread);
+         * bytes after the current line are already read as binary.
+         */
+        public void switchToBinary(String ackLine) {
+            binaryIn = true;
+            if (!outbound.switchToBinary(encodeLine(ackLine))) {
+                close();
+                return;
+            }
+            flush();
+        }
+
+        /** Queues one protocol line; the newline is appended here. */
+        public void send(String line) {
+            sendEncoded(encodeLine(line));
+        }
+
+        /**
+         * Queues an already encoded frame (see encodeLine). The buffer's content is
+         * shared, not copied, so one encoded broadcast can be handed to every client.
+         */
+        public void sendEncoded(ByteBuffer frame) {
+            sendEncoded(frame, null, OutboundQueue.NOT_CONFLATABLE, null);
+        }
+
+        /** Queues a BinaryCodec frame; only valid once the connection is binary. */
+        public void sendBinary(ByteBuffer frame) {
+            sendEncoded(frame, frame, OutboundQueue.NOT_CONFLATABLE, null);
+        }
+
+        /**
+         * Queues one message given in both encodings; the one matching this
+         * client's protocol is sent. binaryFrame may be null (text gets wrapped).
+         * A frame with a conflationKey (the lot of a BID price update) may be
+         * replaced by a newer one for the same key if this client is lagging.
+         * delivery, if given, is released once this client's write of the frame completes.
+         * Returns true if the frame was queued.
+         */
+        public boolean sendEncoded(ByteBuffer text, ByteBuffer binaryFrame, int conflationKey, Delivery delivery) {
+            if (closed.get()) return false;
+            if (!outbound.offer(text, binaryFrame, conflationKey, delivery)) {
+                // slow consumer: dropping it is cheaper than letting it hold memory
+                close();
+                return false;
+            }
+            if (reactor == null) {
+                // detached: the owner drains the queue itself
+            } else if (Thread.currentThread() == reactor.thread) {
+                flush();
+            } else if (writeRequested.compareAndSet(false, true)) {
+                reactor.requestWrite(this);
+            }
+            return true;
+        }
+
+        public void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            if (key != null) key.cancel();
+            closeQuietly(channel);
+            outbound.clear();
+            handler.onDisconnect(this);
+        }
+
+        void onReadable() throws IOException {
+            ByteBuffer buf = reactor.readBuffer;
+            buf.clear();
+            int n = channel.read(buf);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastReadMillis = reactor.now;
+            buf.flip();
+            while (buf.hasRemaining()) {
+                if (binaryIn) {
+                    readFrames(buf);
+                    return;
+                }
+                byte b = buf.get();
+                if (b == '\n') {
+                    emitLine();
+                } else if (!lineBuffer.hasRemaining()) {
+                    // no newline within MAX_LINE bytes: not our protocol
+                    close();
+                    return;
+                } else {
+                    lineBuffer.put(b);
+                }
+                if (closed.get()) return;
+            }
+        }
+
+        private void emitLine() {
+            int len = lineBuffer.position();
+            if (len > 0 && lineBuffer.get(len - 1) == '\r') len--;
+            handler.onLine(this, lineBuffer.array(), len);
+            lineBuffer.clear();
+        }
+
+        // Binary mode: lineBuffer collects [u16 length][payload] frames
+        private void readFrames(ByteBuffer buf) {
+            while (buf.hasRemaining()) {
+                int n = Math.min(buf.remaining(), lineBuffer.remaining());
+                if (n == 0) {
+                    close(); // a frame larger than MAX_LINE
+                    return;
+                }
+                int oldLimit = buf.limit();
+                buf.limit(buf.position() + n);
+                lineBuffer.put(buf);
+                buf.limit(oldLimit);
+
+                int total = lineBuffer.position();
+                int off = 0;
+                while (total - off >= 2) {
+                    int len = lineBuffer.getShort(off) & 0xFFFF;
+                    if (len == 0 || len > MAX_LINE - 2) {
+                        close();
+                        return;
+                    }
+                    if (total - off < 2 + len) break;
+                    lineBuffer.limit(off + 2 + len);
+                    lineBuffer.position(off + 2);
+                    handler.onFrame(this, lineBuffer);
+                    lineBuffer.limit(lineBuffer.capacity());
+                    off += 2 + len;
+                    if (closed.get()) return;
+                }
+                lineBuffer.limit(total);
+                lineBuffer.position(off);
+                lineBuffer.compact();
+            }
+        }
+
+        // Runs on the reactor thread only
+        void flush() {
+            if (closed.get() || key == null) return;
+            ByteBuffer[] batch = reactor.writeBatch;
+            try {
+                int n;
+                while ((n = outbound.peek(batch)) > 0) {
+                    channel.write(batch, 0, n);
+                    int sent = 0;
+                    while (sent < n && !batch[sent].hasRemaining()) {
+                        Delivery d = outbound.removeHead();
+                        if (d != null) d.release(true);
+                        sent++;
+                    }
+                    if (sent < n) {
+                        // socket buffer full; wait for OP_WRITE
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException ex) {
+                close();
+            } catch (CancelledKeyException ex) {
+                close();
+            } finally {
+                // the batch is shared by the reactor's connections; do not keep frames alive
+                Arrays.fill(batch, null);
+            }
+        }
+
+        void onWritable() {
+            flush();
+        }
+
+        /** Detached connections only: discards everything queued as if written. Returns the frame count. */
+        int drainQueued() {
+            int n = 0;
+            while (outbound.peek() != null) {
+                Delivery d = outbound.removeHead();
+                if (d != null) d.release(true);
+                n++;
+            }
+            return n;
+        }
+    }
+}
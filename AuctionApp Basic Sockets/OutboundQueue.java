@@ -0,0 +1,240 @@
+import java.nio.ByteBuffer;
+
+/**
+ * OutboundQueue
+ * - Bounded queue of encoded frames waiting to be written to one client
+ * - Producers (broadcasters, any thread) only ever enqueue; the owning reactor
+ *   drains it, so a stalled socket never blocks the sender
+ * - Slow-consumer handling:
+ *   CONFLATE_BIDS: a newer BID| update replaces, in place, an older one for the
+ *                  same lot still waiting in the queue, so a lagging client skips
+ *                  intermediate prices and only sees the latest; other frames
+ *                  are never dropped. Any other frame (START, END, FINAL_REQUEST,
+ *                  a binary BIDDER announcement, ...) is a barrier: prices
+ *                  queued before it are no longer replaced, so a newer price
+ *                  never overtakes it
+ *   DISCONNECT:    every frame is kept; the client is dropped when it falls behind
+ * - With either policy the client is disconnected when the queue overflows or the
+ *   oldest unsent frame is older than maxLagMillis
+ *
+ * - Knows whether its client speaks text lines or BinaryCodec frames; callers
+ *   offer both encodings and the choice is made under the lock, so the switch
+ *   to binary is atomic with respect to concurrent broadcasts
+ *
+ * - A frame may carry a Delivery; the queue holds a reference to it until the
+ *   frame is written (removeHead hands it back) or dropped
+ *
+ * The lock is per client, held for a few array operations and never across I/O.
+ */
+public class OutboundQueue {
+
+    public enum SlowConsumerPolicy {
+        CONFLATE_BIDS,
+        DISCONNECT
+    }
+
+    /** Immutable settings shared by all connections of a server. */
+    public static final class Config {
+        public final int capacity;
+        public final SlowConsumerPolicy policy;
+        public final long maxLagMillis;
+
+        public Config(int capacity, SlowConsumerPolicy policy, long maxLagMillis) {
+            if (capacity < 2) throw new IllegalArgumentException("capacity must be >= 2");
+            this.capacity = capacity;
+            this.policy = policy;
+            this.maxLagMillis = maxLagMillis;
+        }
+
+        public static Config defaults() {
+            return new Config(1024, SlowConsumerPolicy.CONFLATE_BIDS, 10000L);
+        }
+
+        /**
+         * -Dauction.queueCapacity (frames, default 1024), -Dauction.slowConsumer
+         * (conflate or disconnect, default conflate) and -Dauction.maxLagMillis
+         * (default 10000, 0 = no age limit).
+         */
+        public static Config fromSystemProperties() {
+            String policy = System.getProperty("auction.slowConsumer", "conflate").trim();
+            SlowConsumerPolicy p;
+            if (policy.equalsIgnoreCase("conflate") || policy.equalsIgnoreCase("conflate_bids")) {
+                p = SlowConsumerPolicy.CONFLATE_BIDS;
+            } else if (policy.equalsIgnoreCase("disconnect")) {
+                p = SlowConsumerPolicy.DISCONNECT;
+            } else {
+                throw new IllegalArgumentException("auction.slowConsumer must be conflate or disconnect: " + policy);
+            }
+            return new Config(Integer.getInteger("auction.queueCapacity", 1024), p,
+                    Long.getLong("auction.maxLagMillis", 10000L));
+        }
+    }
+
+    /** Conflation key for frames that must never be replaced. */
+    public static final int NOT_CONFLATABLE = -1;
+
+    // how many lots' pending prices are tracked for in-place replacement
+    private static final int CONFLATION_SLOTS = 8;
+
+    private final Config config;
+    private final ByteBuffer[] ring;
+    private final Delivery[] deliveries;   // parallel to ring, mostly null
+    private int head = 0;   // index of the oldest frame
+    private int size = 0;
+    // queued, not yet started, conflatable frames: key (lot) -> ring index
+    private final int[] pendingKeys = new int[CONFLATION_SLOTS];
+    private final int[] pendingIndexes = new int[CONFLATION_SLOTS];
+    private int pendingCount = 0;
+    private long headSince = 0L;  // when the current head frame became the oldest pending one
+    private boolean failed = false;
+    private volatile boolean binary = false;
+
+    public OutboundQueue(Config config) {
+        this.config = config;
+        this.ring = new ByteBuffer[config.capacity];
+        this.deliveries = new Delivery[config.capacity];
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /** Queues the last text frame (the negotiation answer) and switches to binary frames. */
+    public synchronized boolean switchToBinary(ByteBuffer lastTextLine) {
+        boolean ok = offer(lastTextLine, null, NOT_CONFLATABLE, null);
+        binary = true;
+        return ok;
+    }
+
+    /**
+     * Queues a frame. text is an encoded line, binaryFrame the same message as a
+     * BinaryCodec frame (or null: it is then wrapped from text when needed).
+     * conflationKey is the lot of a price update, or NOT_CONFLATABLE.
+     * Returns false when the client is too slow according to the configured
+     * policy; the caller is expected to disconnect it.
+     * delivery (may be null) is retained while the frame is queued.
+     */
+    public synchronized boolean offer(ByteBuffer text, ByteBuffer binaryFrame, int conflationKey, Delivery delivery) {
+        if (failed) return false;
+        ByteBuffer frame;
+        if (binary) {
+            frame = binaryFrame != null ? binaryFrame.duplicate() : BinaryCodec.wrapTextLine(text);
+        } else {
+            frame = text.duplicate();
+        }
+        long now = System.currentTimeMillis();
+        if (size > 0 && config.maxLagMillis > 0 && now - headSince > config.maxLagMillis) {
+            return fail();
+        }
+
+        boolean conflate = conflationKey != NOT_CONFLATABLE && config.policy == SlowConsumerPolicy.CONFLATE_BIDS;
+        if (conflate) {
+            for (int i = 0; i < pendingCount; i++) {
+                if (pendingKeys[i] == conflationKey) {
+                    // overwrite the stale price where it is; only other lots'
+                    // prices can be queued behind it (see the barrier below)
+                    int idx = pendingIndexes[i];
+                    ring[idx] = frame;
+                    Delivery replaced = deliveries[idx];
+                    if (delivery != null) delivery.retain();
+                    deliveries[idx] = delivery;
+                    if (replaced != null) replaced.release(false);
+                    return true;
+                }
+            }
+        }
+        if (size == ring.length) {
+            return fail();
+        }
+        if (size == 0) headSince = now;
+        int idx = (head + size) % ring.length;
+        ring[idx] = frame;
+        if (delivery != null) delivery.retain();
+        deliveries[idx] = delivery;
+        size++;
+        if (conflationKey == NOT_CONFLATABLE) {
+            // barrier: whatever was queued before this frame stays before it
+            pendingCount = 0;
+        } else if (conflate && idx != head && pendingCount < CONFLATION_SLOTS) {
+            pendingKeys[pendingCount] = conflationKey;
+            pendingIndexes[pendingCount] = idx;
+            pendingCount++;
+        }
+        return true;
+    }
+
+    /** Oldest frame, or null. The reactor writes it outside the lock and calls removeHead once it is fully sent. */
+    public synchronized ByteBuffer peek() {
+        if (size == 0) return null;
+        // writing is about to start, the head is no longer replaceable
+        for (int i = 0; i < pendingCount; i++) {
+            if (pendingIndexes[i] == head) {
+                pendingCount--;
+                pendingKeys[i] = pendingKeys[pendingCount];
+                pendingIndexes[i] = pendingIndexes[pendingCount];
+                break;
+            }
+        }
+        return ring[head];
+    }
+
+    /**
+     * Up to batch.length frames from the head, oldest first, for one gathering
+     * write; returns how many were put in batch. As with peek(), these frames
+     * can no longer be replaced. removeHead is called for each fully sent one.
+     */
+    public synchronized int peek(ByteBuffer[] batch) {
+        int n = Math.min(size, batch.length);
+        for (int i = 0; i < n; i++) {
+            batch[i] = ring[(head + i) % ring.length];
+        }
+        for (int i = 0; i < pendingCount; ) {
+            if ((pendingIndexes[i] - head + ring.length) % ring.length < n) {
+                pendingCount--;
+                pendingKeys[i] = pendingKeys[pendingCount];
+                pendingIndexes[i] = pendingIndexes[pendingCount];
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    /** Drops the written head frame and returns its Delivery (or null); the caller releases it. */
+    public synchronized Delivery removeHead() {
+        if (size == 0) return null;
+        Delivery d = deliveries[head];
+        ring[head] = null;
+        deliveries[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        headSince = System.currentTimeMillis();
+        return d;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+            if (deliveries[i] != null) {
+                deliveries[i].release(false);
+                deliveries[i] = null;
+            }
+        }
+        head = 0;
+        size = 0;
+        pendingCount = 0;
+    }
+
+    private boolean fail() {
+        failed = true;
+        return false;
+    }
+}
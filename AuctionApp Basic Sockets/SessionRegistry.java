@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+/**
+ * SessionRegistry
+ * - Binds a bidder name to the one live connection that claimed it at JOIN
+ *   (or RESUME); from then on that connection bids and confirms as that
+ *   bidder only, and no other connection can
+ * - Names are interned by BidderIds, so a binding is one array slot per
+ *   bidder id. A name is only interned once its claim succeeds, and a session
+ *   that never bid gives its id back when it ends (see pin), so made-up names
+ *   cannot grow the table
+ * - A name is free again once its connection closes (or is reaped as idle),
+ *   so a reconnecting bidder gets the same name back, and the same id once it
+ *   has bid
+ * - A holder that has been silent for the caller's staleMillis (it ignored a
+ *   heartbeat) is taken to be the half-open socket a network drop leaves
+ *   behind: it is closed and the name handed to the new connection, so a
+ *   reconnect does not have to wait for the idle reaper
+ *
+ * Claims and releases happen once per connection, so they simply take a lock;
+ * the per-bid path never looks here (the connection keeps its own id).
+ */
+public class SessionRegistry {
+
+    public static final int IN_USE = -1;
+    public static final int FULL = -2;
+
+    private final BidderIds ids;
+    private NioAuctionServer.Connection[] owners = new NioAuctionServer.Connection[128];   // guarded by this
+
+    public SessionRegistry(BidderIds ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Claims the name in b[off, off+len) for conn. Returns its bidder id, IN_USE
+     * when another live connection holds the name, or FULL when BidderIds has no
+     * id left for a new one. A holder that has not been heard from for
+     * staleMillis (0 = never) is closed and loses the name.
+     */
+    public int claim(byte[] b, int off, int len, NioAuctionServer.Connection conn, long staleMillis) {
+        NioAuctionServer.Connection stale = null;
+        int id;
+        synchronized (this) {
+            // looked up, not interned, until the name turns out to be free
+            id = ids.find(b, off, len);
+            NioAuctionServer.Connection owner = id >= 0 && id < owners.length ? owners[id] : null;
+            // a closed owner that was not released yet does not keep the name
+            if (owner != null && owner != conn && owner.isOpen()) {
+                if (staleMillis <= 0 || System.currentTimeMillis() - owner.getLastReadMillis() < staleMillis) return IN_USE;
+                stale = owner;
+            }
+            if (id < 0) {
+                id = ids.internSession(b, off, len);
+                if (id < 0) return FULL;
+            }
+            if (id >= owners.length) {
+                owners = Arrays.copyOf(owners, Math.max(id + 1, owners.length * 2));
+            }
+            owners[id] = conn;
+        }
+        if (stale != null) {
+            // its disconnect releases nothing: the slot already belongs to conn
+            stale.close();
+        }
+        return id;
+    }
+
+    /**
+     * Called before conn's first BID or FINAL_CONFIRM goes out: from then on
+     * commands, bids and the journal carry its id, so the id stays with the
+     * name for good. Returns false when conn no longer holds the name (it was
+     * closed meanwhile); the command must then be dropped.
+     */
+    public synchronized boolean pin(int id, NioAuctionServer.Connection conn) {
+        if (id < 0 || id >= owners.length || owners[id] != conn) return false;
+        ids.pin(id);
+        return true;
+    }
+
+    /** Frees the name bound to id, if conn still holds it; an unpinned id goes back to BidderIds. */
+    public synchronized void release(int id, NioAuctionServer.Connection conn) {
+        if (id >= 0 && id < owners.length && owners[id] == conn) {
+            owners[id] = null;
+            ids.releaseSession(id);
+        }
+    }
+}
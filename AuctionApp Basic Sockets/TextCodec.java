@@ -0,0 +1,193 @@
+import java.nio.ByteBuffer;
+
+/**
+ * TextCodec
+ * - Garbage-free parser and encoder for the pipe-delimited text protocol
+ * - parse() dispatches on the first byte, checks the command prefix and records
+ *   the field boundaries of one line in a reusable Line; nothing is copied
+ * - Amounts are parsed straight from the bytes into cents (Money); the name in a
+ *   BID or FINAL_CONFIRM is not looked up at all, the server just compares its
+ *   bytes with the name the connection is bound to (SessionRegistry, at JOIN)
+ * - Outbound BID lines are encoded directly into one exact-size byte array
+ *
+ * Only the hot messages (BID, FINAL_CONFIRM) are guaranteed allocation-free;
+ * JOIN/SUBSCRIBE are rare and may turn fields into Strings.
+ */
+public final class TextCodec {
+
+    public static final int UNKNOWN = 0;
+    public static final int JOIN = 1;
+    public static final int JOIN_BINARY = 2;
+    public static final int SUBSCRIBE = 3;
+    public static final int UNSUBSCRIBE = 4;
+    public static final int BID = 5;
+    public static final int FINAL_CONFIRM = 6;
+    public static final int RESUME = 7;
+    public static final int PONG = 8;
+    public static final int TOP = 9;
+
+    private static final byte[] P_JOIN = utf8("JOIN|");
+    private static final byte[] P_JOIN_BINARY = utf8("JOIN_BINARY|");
+    private static final byte[] P_SUBSCRIBE = utf8("SUBSCRIBE|");
+    private static final byte[] P_UNSUBSCRIBE = utf8("UNSUBSCRIBE|");
+    private static final byte[] P_BID = utf8("BID|");
+    private static final byte[] P_FINAL_CONFIRM = utf8("FINAL_CONFIRM|");
+    private static final byte[] P_RESUME = utf8("RESUME|");
+    private static final byte[] P_PONG = utf8("PONG");
+    private static final byte[] P_TOP = utf8("TOP|");
+
+    private static final int MAX_FIELDS = 8;
+
+    /**
+     * Parse result for one line. Reused for every line of a connection, so it
+     * must only be used by the thread that parsed it and only until the next parse.
+     */
+    public static final class Line {
+        public int type;
+        private byte[] bytes;
+        private int start;
+        private int end;
+        private int fields;
+        private final int[] fieldStart = new int[MAX_FIELDS];
+        private final int[] fieldEnd = new int[MAX_FIELDS];
+
+        /** Number of '|' separated fields after the command. */
+        public int fieldCount() {
+            return fields;
+        }
+
+        public int fieldOffset(int i) {
+            return fieldStart[i];
+        }
+
+        public int fieldLength(int i) {
+            return fieldEnd[i] - fieldStart[i];
+        }
+
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        /** Field i as cents, or -1 if it is not a valid amount. */
+        public long fieldCents(int i) {
+            return Money.parse(bytes, fieldStart[i], fieldEnd[i] - fieldStart[i]);
+        }
+
+        /** Field i as a new String; for cold paths only. */
+        public String fieldString(int i) {
+            return new String(bytes, fieldStart[i], fieldEnd[i] - fieldStart[i], NioAuctionServer.UTF8);
+        }
+
+        // the whole line, for logging
+        public String toString() {
+            return new String(bytes, start, end - start, NioAuctionServer.UTF8);
+        }
+    }
+
+    private TextCodec() {
+    }
+
+    /** Parses bytes[off, off+len) into out. Returns out.type. */
+    public static int parse(byte[] bytes, int off, int len, Line out) {
+        out.bytes = bytes;
+        out.start = off;
+        out.end = off + len;
+        out.fields = 0;
+        out.type = UNKNOWN;
+        if (len == 0) return UNKNOWN;
+
+        int type;
+        byte[] prefix;
+        switch (bytes[off]) {
+            case 'B':
+                type = BID;
+                prefix = P_BID;
+                break;
+            case 'F':
+                type = FINAL_CONFIRM;
+                prefix = P_FINAL_CONFIRM;
+                break;
+            case 'J':
+                if (len > 4 && bytes[off + 4] == '_') {
+                    type = JOIN_BINARY;
+                    prefix = P_JOIN_BINARY;
+                } else {
+                    type = JOIN;
+                    prefix = P_JOIN;
+                }
+                break;
+            case 'P':
+                type = PONG;
+                prefix = P_PONG;
+                break;
+            case 'R':
+                type = RESUME;
+                prefix = P_RESUME;
+                break;
+            case 'S':
+                type = SUBSCRIBE;
+                prefix = P_SUBSCRIBE;
+                break;
+            case 'T':
+                type = TOP;
+                prefix = P_TOP;
+                break;
+            case 'U':
+                type = UNSUBSCRIBE;
+                prefix = P_UNSUBSCRIBE;
+                break;
+            default:
+                return UNKNOWN;
+        }
+        if (!startsWith(bytes, off, len, prefix)) return UNKNOWN;
+
+        // SUBSCRIBE/UNSUBSCRIBE take the rest of the line as one field
+        boolean single = type == SUBSCRIBE || type == UNSUBSCRIBE;
+        int fieldBegin = off + prefix.length;
+        int end = off + len;
+        for (int i = fieldBegin; i <= end; i++) {
+            if (i == end || (!single && bytes[i] == '|')) {
+                if (out.fields == MAX_FIELDS) break;
+                out.fieldStart[out.fields] = fieldBegin;
+                out.fieldEnd[out.fields] = i;
+                out.fields++;
+                fieldBegin = i + 1;
+            }
+        }
+        out.type = type;
+        return type;
+    }
+
+    /**
+     * Encodes "BID|<name>|<amount><suffix>\n" into one exact-size read-only
+     * buffer; suffix is the lot tag ("|<lot>") or an empty array.
+     */
+    public static ByteBuffer encodeBid(byte[] name, long cents, byte[] suffix) {
+        int amountLen = Money.length(cents);
+        byte[] out = new byte[P_BID.length + name.length + 1 + amountLen + suffix.length + 1];
+        int p = 0;
+        System.arraycopy(P_BID, 0, out, p, P_BID.length);
+        p += P_BID.length;
+        System.arraycopy(name, 0, out, p, name.length);
+        p += name.length;
+        out[p++] = '|';
+        p = Money.put(out, p, cents);
+        System.arraycopy(suffix, 0, out, p, suffix.length);
+        p += suffix.length;
+        out[p] = '\n';
+        return ByteBuffer.wrap(out).asReadOnlyBuffer();
+    }
+
+    /** UTF-8 bytes of s, as they go on the wire. */
+    public static byte[] utf8(String s) {
+        return s.getBytes(NioAuctionServer.UTF8);
+    }
+
+    private static boolean startsWith(byte[] b, int off, int len, byte[] prefix) {
+        if (len < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[off + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
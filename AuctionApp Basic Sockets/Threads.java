@@ -0,0 +1,67 @@
+import java.lang.reflect.Method;
+
+/**
+ * Threads
+ * - Creates the threads that spend their life blocked in socket I/O: the
+ *   server's accept loop and BidMakerWindow's connect and reader threads
+ * - With -Dauction.virtualThreads=true on a JVM that has virtual threads
+ *   (Java 21+) they are virtual, so a blocked socket does not hold a platform
+ *   thread; otherwise, and on Java 7/8, they are plain daemon threads
+ * - Thread.ofVirtual() is looked up reflectively, so the code still compiles
+ *   for and runs on Java 7
+ *
+ * Threads that spin or park on purpose (reactors, sequencers, journal, log)
+ * stay platform threads: they are few, long-lived and CPU-bound.
+ */
+public final class Threads {
+
+    private static final boolean VIRTUAL_REQUESTED = Boolean.getBoolean("auction.virtualThreads");
+
+    // Thread.ofVirtual(), Thread.Builder.name(String), Thread.Builder.unstarted(Runnable); null when unavailable
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        if (VIRTUAL_REQUESTED) {
+            try {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                name = builder.getMethod("name", String.class);
+                unstarted = builder.getMethod("unstarted", Runnable.class);
+            } catch (Exception ex) {
+                // pre-21 JVM: fall back to platform threads
+                ofVirtual = null;
+            }
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private Threads() {
+    }
+
+    /** True when blocking threads are created as virtual threads. */
+    public static boolean isVirtual() {
+        return OF_VIRTUAL != null;
+    }
+
+    /** An unstarted daemon thread for blocking I/O; virtual when enabled and supported. */
+    public static Thread newBlockingThread(Runnable task, String name) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) UNSTARTED.invoke(builder, task);
+            } catch (Exception ex) {
+                // reflective call failed; a platform thread still does the job
+            }
+        }
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * TimerWheel
+ * - Hashed timer wheel: a ring of slots, each a linked list of timers, with a
+ *   cursor that moves one slot per tick; a timer further away than one turn
+ *   of the wheel carries the number of remaining turns
+ * - schedule and firing are O(1) per timer, however many timers there are, so
+ *   one wheel can watch tens of thousands of connections
+ * - Resolution is one tick; timers fire up to a tick late, never early
+ * - No cancel: the owner of a timer checks its own state when it fires and
+ *   simply does not reschedule when there is nothing left to do
+ *
+ * Not thread-safe: schedule and advance are called by the owning thread only
+ * (in NioAuctionServer, the reactor thread).
+ */
+final class TimerWheel {
+
+    /** One timer; schedule it again from run() to make it periodic. */
+    abstract static class Timer {
+        private Timer next;
+        private long rounds;
+        private boolean scheduled;
+
+        /** Called on the owning thread once the delay has passed. */
+        abstract void run(long nowMillis);
+    }
+
+    private final Timer[] slots;
+    private final long tickMillis;
+    private int cursor = 0;
+    private long nextTick;
+
+    TimerWheel(int slotCount, long tickMillis, long nowMillis) {
+        this.slots = new Timer[slotCount];
+        this.tickMillis = tickMillis;
+        this.nextTick = nowMillis + tickMillis;
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    /** Fires t after delayMillis (at least one tick). Ignored if t is already scheduled. */
+    void schedule(Timer t, long delayMillis) {
+        if (t.scheduled) return;
+        long ticks = Math.max(1L, (delayMillis + tickMillis - 1) / tickMillis);
+        int slot = (int) ((cursor + ticks) % slots.length);
+        t.rounds = (ticks - 1) / slots.length;
+        t.scheduled = true;
+        t.next = slots[slot];
+        slots[slot] = t;
+    }
+
+    /** Runs every timer that is due at nowMillis. */
+    void advance(long nowMillis) {
+        while (nextTick <= nowMillis) {
+            cursor = (cursor + 1) % slots.length;
+            nextTick += tickMillis;
+            // detach the slot first: timers rescheduled from run() go to a fresh list
+            Timer t = slots[cursor];
+            slots[cursor] = null;
+            while (t != null) {
+                Timer next = t.next;
+                t.next = null;
+                if (t.rounds > 0) {
+                    t.rounds--;
+                    t.next = slots[cursor];
+                    slots[cursor] = t;
+                } else {
+                    t.scheduled = false;
+                    t.run(nowMillis);
+                }
+                t = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AuctionBenchmark
+ * - Quick check of the server hot paths without JMH; the JMH benchmarks in
+ *   jmh/ (gradle jmh) cover the same four areas and are the ones to quote
+ * - A plain harness: warmup and timed measurement iterations, results
+ *   consumed through a volatile sink so the JIT cannot drop the work, and
+ *   each benchmark run in a fresh JVM (-Dbench.fork=false runs them all in
+ *   this one), so one benchmark's JIT profile and heap do not colour the next
+ * - No guards beyond the sink and no statistics beyond per-iteration rates:
+ *   compare numbers between runs of this harness on the same machine and JVM
+ *   only, not with JMH results
+ * - parse:     TextCodec parsing of JOIN|/BID|/FINAL_CONFIRM| lines as
+ *              AuctionServer.handleClientMessage does (incl. cents and the
+ *              check of the name against the one the connection joined as)
+ * - bidbook:   BidBook.place() CAS under contention from 1..8 threads
+ * - sequencer: BID commands from 1..8 producer threads through one
+ *              AuctionSequencer into a BidBook (the single-writer path)
+ * - fanout:    BroadcastGroup.broadcast of one BID to 10/100/1,000/10,000
+ *              in-memory (detached) connections
+ *
+ * Build and run from "AuctionApp Basic Sockets":
+ *   gradle harness [-Pharness='parse|bidbook|sequencer|fanout ...']
+ * or without Gradle:
+ *   javac -d out *.java bench/*.java
+ *   java -cp out AuctionBenchmark [parse|bidbook|sequencer|fanout ...]
+ */
+public class AuctionBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 5;
+    private static final long ITERATION_MILLIS = 1000L;
+
+    // results land here so the JIT has to keep the work (the Blackhole of this harness)
+    private static volatile long sink;
+
+    /** One benchmark body; returns how many operations it performed. */
+    private interface Body {
+        long run(long deadlineNanos);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] which = args.length > 0 ? args : new String[] {"parse", "bidbook", "sequencer", "fanout"};
+        boolean fork = !"false".equalsIgnoreCase(System.getProperty("bench.fork", "true"));
+        for (String name : which) {
+            if (fork) {
+                fork(name);
+            } else if (name.equals("parse")) {
+                parse();
+            } else if (name.equals("bidbook")) {
+                for (int threads : new int[] {1, 2, 4, 8}) bidBook(threads);
+            } else if (name.equals("sequencer")) {
+                for (int threads : new int[] {1, 2, 4, 8}) sequencer(threads);
+            } else if (name.equals("fanout")) {
+                for (int clients : new int[] {10, 100, 1000, 10000}) fanOut(clients);
+            } else {
+                System.out.println("Unknown benchmark: " + name);
+            }
+        }
+    }
+
+    // runs one benchmark in a new JVM with the same class path, output passed through
+    private static void fork(String name) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-Dbench.fork=false", "-cp", System.getProperty("java.class.path"),
+                AuctionBenchmark.class.getName(), name).inheritIO().start();
+        int exit = p.waitFor();
+        if (exit != 0) System.out.println(name + ": forked JVM exited with " + exit);
+    }
+
+    // --- parse ---
+
+    private static void parse() {
+        final byte[][] lines = {
+                TextCodec.utf8("BID|bidder42|1234.50"),
+                TextCodec.utf8("BID|bidder7|99|lot3"),
+                TextCodec.utf8("FINAL_CONFIRM|bidder42"),
+                TextCodec.utf8("JOIN|bidder42"),
+        };
+        final BidderIds ids = new BidderIds();
+        // the name the connection joined as (SessionRegistry); bids must carry it
+        final byte[] own = ids.nameBytes(ids.intern("bidder42"));
+        final TextCodec.Line line = new TextCodec.Line();
+        measure("parse (mixed JOIN/BID/FINAL_CONFIRM)", 1, new Body() {
+            public long run(long deadline) {
+                long ops = 0;
+                long acc = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int k = 0; k < 1024; k++) {
+                        byte[] b = lines[k & 3];
+                        int type = TextCodec.parse(b, 0, b.length, line);
+                        if (type == TextCodec.BID) {
+                            acc += line.fieldCents(1);
+                            if (sameBytes(own, b, line.fieldOffset(0), line.fieldLength(0))) acc++;
+                        } else if (type == TextCodec.FINAL_CONFIRM) {
+                            if (sameBytes(own, b, line.fieldOffset(0), line.fieldLength(0))) acc++;
+                        } else {
+                            acc += line.fieldLength(0);
+                        }
+                    }
+                    ops += 1024;
+                }
+                sink += acc;
+                return ops;
+            }
+        });
+    }
+
+    private static boolean sameBytes(byte[] a, byte[] b, int off, int len) {
+        if (a.length != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[off + i]) return false;
+        }
+        return true;
+    }
+
+    // --- bid state under contention ---
+
+    private static void bidBook(int threads) throws InterruptedException {
+        final BidBook book = new BidBook();
+        final AtomicLong nextAmount = new AtomicLong();
+        final String[] names = new String[threads];
+        for (int i = 0; i < threads; i++) names[i] = "bidder" + i;
+        measureThreads("bidbook place, " + threads + " thread(s)", threads, new ThreadBody() {
+            public long run(int thread, long deadline) {
+                long ops = 0;
+                long accepted = 0;
+                String name = names[thread];
+                while (System.nanoTime() < deadline) {
+                    // mostly increasing amounts with the odd stale one, as in a live close
+                    long amount = nextAmount.incrementAndGet() - ((ops & 7) == 0 ? 5 : 0);
+                    if (book.place(name, amount) != null) accepted++;
+                    ops++;
+                }
+                sink += accepted;
+                return ops;
+            }
+        });
+    }
+
+    private static void sequencer(int threads) throws InterruptedException {
+        final BidBook book = new BidBook();
+        final AtomicLong handled = new AtomicLong();
+        final AuctionSequencer seq = new AuctionSequencer(4096, new AuctionSequencer.Handler() {
+            public void onCommand(AuctionSequencer.Command cmd) {
+                book.place(cmd.text, cmd.amount);
+                handled.lazySet(handled.get() + 1);
+            }
+
+            public void onError(AuctionSequencer.Command cmd, RuntimeException ex) {
+            }
+        }, "bench-sequencer");
+        seq.start();
+        final AtomicLong nextAmount = new AtomicLong();
+        final String[] names = new String[threads];
+        for (int i = 0; i < threads; i++) names[i] = "bidder" + i;
+        measureThreads("sequencer BID -> bidbook, " + threads + " producer(s)", threads, new ThreadBody() {
+            public long run(int thread, long deadline) {
+                long ops = 0;
+                String name = names[thread];
+                while (System.nanoTime() < deadline) {
+                    seq.publish(AuctionSequencer.Command.BID, null, null, name, nextAmount.incrementAndGet(), thread, 0L);
+                    ops++;
+                }
+                return ops;
+            }
+        });
+        seq.stop();
+        sink += handled.get();
+    }
+
+    // --- fan-out ---
+
+    private static void fanOut(int clients) {
+        NioAuctionServer server = new NioAuctionServer(0, 1, new NioAuctionServer.Handler() {
+            public void onConnect(NioAuctionServer.Connection c) {
+            }
+
+            public void onLine(NioAuctionServer.Connection c, byte[] line, int length) {
+            }
+
+            public void onFrame(NioAuctionServer.Connection c, ByteBuffer frame) {
+            }
+
+            public void onDisconnect(NioAuctionServer.Connection c) {
+            }
+
+            public void onError(NioAuctionServer.Connection c, RuntimeException ex) {
+            }
+        });
+        final BroadcastGroup group = new BroadcastGroup();
+        final NioAuctionServer.Connection[] conns = new NioAuctionServer.Connection[clients];
+        for (int i = 0; i < clients; i++) {
+            conns[i] = server.newDetachedConnection();
+            group.add(conns[i]);
+        }
+        final byte[] name = TextCodec.utf8("bidder42");
+        final byte[] suffix = new byte[0];
+        final long[] spent = new long[1];
+        Body body = new Body() {
+            public long run(long deadline) {
+                long ops = 0;
+                long amount = 100;
+                long nanos = 0;
+                while (System.nanoTime() < deadline) {
+                    ByteBuffer text = TextCodec.encodeBid(name, amount, suffix);
+                    ByteBuffer binary = BinaryCodec.encodeBid(0, 42, amount, ops);
+                    long start = System.nanoTime();
+                    sink += group.broadcast(text, binary, 0);
+                    nanos += System.nanoTime() - start;
+                    // the reactors' share, outside the timed region
+                    for (NioAuctionServer.Connection c : conns) c.drainQueued();
+                    amount++;
+                    ops++;
+                }
+                spent[0] += nanos;
+                return ops;
+            }
+        };
+        System.out.println("fanout to " + clients + " clients");
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            body.run(System.nanoTime() + ITERATION_MILLIS * 1000000L);
+        }
+        spent[0] = 0;
+        long ops = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            ops += body.run(System.nanoTime() + ITERATION_MILLIS * 1000000L);
+        }
+        double perBroadcast = (double) spent[0] / ops;
+        System.out.printf("  %,12.0f ns/broadcast  %,8.1f ns/client  (%,d broadcasts)%n",
+                perBroadcast, perBroadcast / clients, ops);
+    }
+
+    // --- harness ---
+
+    private static void measure(String label, int threads, Body body) {
+        System.out.println(label);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            body.run(System.nanoTime() + ITERATION_MILLIS * 1000000L);
+        }
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            long ops = body.run(start + ITERATION_MILLIS * 1000000L);
+            report(i, ops, System.nanoTime() - start, threads);
+        }
+    }
+
+    private interface ThreadBody {
+        long run(int thread, long deadlineNanos);
+    }
+
+    private static void measureThreads(String label, final int threads, final ThreadBody body) throws InterruptedException {
+        System.out.println(label);
+        for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+            final long[] ops = new long[threads];
+            final CountDownLatch go = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(threads);
+            final long deadline = System.nanoTime() + 50000000L + ITERATION_MILLIS * 1000000L;
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                Thread th = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            go.await();
+                            ops[thread] = body.run(thread, deadline);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }, "bench-" + t);
+                th.start();
+            }
+            long start = System.nanoTime();
+            go.countDown();
+            done.await();
+            long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP_ITERATIONS) {
+                long total = 0;
+                for (long n : ops) total += n;
+                report(i - WARMUP_ITERATIONS, total, elapsed, threads);
+            }
+        }
+    }
+
+    private static void report(int iteration, long ops, long nanos, int threads) {
+        double perSec = ops * 1e9 / nanos;
+        System.out.printf("  iteration %d: %,14.0f ops/s  %,8.1f ns/op per thread%n",
+                iteration + 1, perSec, (double) nanos * threads / ops);
+    }
+}
@@ -0,0 +1,133 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import benchmarks.Workloads;
+
+/**
+ * AuctionWorkloads
+ * - The server side of benchmarks.Workloads: builds the real TextCodec,
+ *   BidBook, AuctionSequencer and BroadcastGroup set-ups the JMH benchmarks
+ *   drive, the same ones bench/AuctionBenchmark measures
+ */
+public class AuctionWorkloads implements Workloads.Factory {
+
+    public Workloads.Parse parse() {
+        final byte[][] lines = {
+                TextCodec.utf8("BID|bidder42|1234.50"),
+                TextCodec.utf8("BID|bidder7|99|lot3"),
+                TextCodec.utf8("FINAL_CONFIRM|bidder42"),
+                TextCodec.utf8("JOIN|bidder42"),
+        };
+        final BidderIds ids = new BidderIds();
+        // the name the connection joined as (SessionRegistry); bids must carry it
+        final byte[] own = ids.nameBytes(ids.intern("bidder42"));
+        final TextCodec.Line line = new TextCodec.Line();
+        return new Workloads.Parse() {
+            private int next;
+
+            public long parseNext() {
+                byte[] b = lines[next++ & 3];
+                int type = TextCodec.parse(b, 0, b.length, line);
+                if (type == TextCodec.BID) {
+                    long cents = line.fieldCents(1);
+                    return sameBytes(own, b, line.fieldOffset(0), line.fieldLength(0)) ? cents : -cents;
+                } else if (type == TextCodec.FINAL_CONFIRM) {
+                    return sameBytes(own, b, line.fieldOffset(0), line.fieldLength(0)) ? 1 : 0;
+                }
+                return line.fieldLength(0);
+            }
+        };
+    }
+
+    public Workloads.Bids bidBook(int bidders) {
+        final BidBook book = new BidBook();
+        final AtomicLong nextAmount = new AtomicLong();
+        final String[] names = names(bidders);
+        return new Workloads.Bids() {
+            public boolean place(int bidder) {
+                // mostly increasing amounts with the odd stale one, as in a live close
+                long amount = nextAmount.incrementAndGet();
+                if ((amount & 7) == 0) amount -= 5;
+                return book.place(names[bidder], amount) != null;
+            }
+        };
+    }
+
+    public Workloads.Sequencer sequencer(int bidders) {
+        final BidBook book = new BidBook();
+        final AuctionSequencer seq = new AuctionSequencer(4096, new AuctionSequencer.Handler() {
+            public void onCommand(AuctionSequencer.Command cmd) {
+                book.place(cmd.text, cmd.amount);
+            }
+
+            public void onError(AuctionSequencer.Command cmd, RuntimeException ex) {
+            }
+        }, "bench-sequencer");
+        seq.start();
+        final AtomicLong nextAmount = new AtomicLong();
+        final String[] names = names(bidders);
+        return new Workloads.Sequencer() {
+            public void publish(int bidder) {
+                seq.publish(AuctionSequencer.Command.BID, null, null, names[bidder], nextAmount.incrementAndGet(), bidder, 0L);
+            }
+
+            public void stop() {
+                seq.stop();
+            }
+        };
+    }
+
+    public Workloads.FanOut fanOut(int clients) {
+        NioAuctionServer server = new NioAuctionServer(0, 1, new NioAuctionServer.Handler() {
+            public void onConnect(NioAuctionServer.Connection c) {
+            }
+
+            public void onLine(NioAuctionServer.Connection c, byte[] line, int length) {
+            }
+
+            public void onFrame(NioAuctionServer.Connection c, ByteBuffer frame) {
+            }
+
+            public void onDisconnect(NioAuctionServer.Connection c) {
+            }
+
+            public void onError(NioAuctionServer.Connection c, RuntimeException ex) {
+            }
+        });
+        final BroadcastGroup group = new BroadcastGroup();
+        final NioAuctionServer.Connection[] conns = new NioAuctionServer.Connection[clients];
+        for (int i = 0; i < clients; i++) {
+            conns[i] = server.newDetachedConnection();
+            group.add(conns[i]);
+        }
+        final byte[] name = TextCodec.utf8("bidder42");
+        final byte[] suffix = new byte[0];
+        return new Workloads.FanOut() {
+            private long amount = 100;
+
+            public int broadcastAndDrain() {
+                ByteBuffer text = TextCodec.encodeBid(name, amount, suffix);
+                ByteBuffer binary = BinaryCodec.encodeBid(0, 42, amount, amount);
+                amount++;
+                int sent = group.broadcast(text, binary, 0);
+                // the reactors' share, minus the socket writes
+                for (NioAuctionServer.Connection c : conns) sent += c.drainQueued();
+                return sent;
+            }
+        };
+    }
+
+    private static String[] names(int bidders) {
+        String[] names = new String[bidders];
+        for (int i = 0; i < bidders; i++) names[i] = "bidder" + i;
+        return names;
+    }
+
+    private static boolean sameBytes(byte[] a, byte[] b, int off, int len) {
+        if (a.length != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[off + i]) return false;
+        }
+        return true;
+    }
+}
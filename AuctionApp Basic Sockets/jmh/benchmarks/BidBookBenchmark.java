@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BidBookBenchmark
+ * - BidBook.place() on one shared book from 1, 2, 4 and 8 threads, each
+ *   thread bidding as its own bidder; throughput is for all threads together
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BidBookBenchmark {
+
+    static final int MAX_THREADS = 8;
+
+    private Workloads.Bids book;
+    private final AtomicInteger nextBidder = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Bidder {
+        int id;
+
+        @Setup
+        public void setUp(BidBookBenchmark shared) {
+            id = shared.nextBidder.getAndIncrement() % MAX_THREADS;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        book = Workloads.load().bidBook(MAX_THREADS);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean place1(Bidder bidder) {
+        return book.place(bidder.id);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public boolean place2(Bidder bidder) {
+        return book.place(bidder.id);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean place4(Bidder bidder) {
+        return book.place(bidder.id);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean place8(Bidder bidder) {
+        return book.place(bidder.id);
+    }
+}
@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FanOutBenchmark
+ * - One BID encoded and broadcast through a BroadcastGroup to 10, 100, 1,000
+ *   and 10,000 in-memory (detached) connections, then every queue drained
+ *   as the reactors would, so an operation is the whole per-bid fan-out cost
+ *   short of the socket writes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int clients;
+
+    private Workloads.FanOut fanOut;
+
+    @Setup
+    public void setUp() {
+        fanOut = Workloads.load().fanOut(clients);
+    }
+
+    @Benchmark
+    public int broadcast() {
+        return fanOut.broadcastAndDrain();
+    }
+}
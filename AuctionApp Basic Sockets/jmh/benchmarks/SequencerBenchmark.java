@@ -0,0 +1,83 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SequencerBenchmark
+ * - BID commands published into one AuctionSequencer from 1, 2, 4 and 8
+ *   producer threads; its consumer places them into a BidBook (the
+ *   single-writer path of a lot)
+ * - Measures what producers can sustain: once the ring is full a publish
+ *   waits for the consumer, so the steady state is the consumer's rate
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SequencerBenchmark {
+
+    static final int MAX_THREADS = 8;
+
+    private Workloads.Sequencer sequencer;
+    private final AtomicInteger nextBidder = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Producer {
+        int id;
+
+        @Setup
+        public void setUp(SequencerBenchmark shared) {
+            id = shared.nextBidder.getAndIncrement() % MAX_THREADS;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        sequencer = Workloads.load().sequencer(MAX_THREADS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sequencer.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void publish1(Producer producer) {
+        sequencer.publish(producer.id);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void publish2(Producer producer) {
+        sequencer.publish(producer.id);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publish4(Producer producer) {
+        sequencer.publish(producer.id);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void publish8(Producer producer) {
+        sequencer.publish(producer.id);
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+/**
+ * Workloads
+ * - The server hot paths as the JMH benchmarks see them. JMH only accepts
+ *   benchmarks in a named package and Java cannot import from the default
+ *   package the server lives in, so every benchmark reaches the server through
+ *   one of these interfaces; AuctionWorkloads (default package, same source
+ *   set) implements them and is looked up once per trial
+ * - Each benchmark only ever sees one implementation, so the interface call is
+ *   monomorphic and inlined; it costs nothing next to the work behind it
+ */
+public final class Workloads {
+
+    /** TextCodec parsing of one line, as ClientHandler.handleClientMessage does. */
+    public interface Parse {
+        long parseNext();
+    }
+
+    /** BidBook.place() from several threads on one book. */
+    public interface Bids {
+        boolean place(int bidder);
+    }
+
+    /** BID commands through one AuctionSequencer into a BidBook. */
+    public interface Sequencer {
+        void publish(int bidder);
+
+        void stop();
+    }
+
+    /** One BID broadcast to every connection of a BroadcastGroup, and the queues drained. */
+    public interface FanOut {
+        int broadcastAndDrain();
+    }
+
+    public interface Factory {
+        Parse parse();
+
+        Bids bidBook(int bidders);
+
+        Sequencer sequencer(int bidders);
+
+        FanOut fanOut(int clients);
+    }
+
+    private Workloads() {
+    }
+
+    public static Factory load() {
+        try {
+            return (Factory) Class.forName("AuctionWorkloads").newInstance();
+        } catch (Exception ex) {
+            throw new IllegalStateException("AuctionWorkloads not on the class path", ex);
+        }
+    }
+}